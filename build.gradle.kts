@@ -1,6 +1,7 @@
 plugins {
     application
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 application {
@@ -30,4 +31,27 @@ dependencies {
     implementation("com.google.guava:guava:33.2.1-jre")
     implementation("org.jgrapht:jgrapht-core:1.5.2")
     implementation("org.apache.commons:commons-collections4:4.5.0")
-}
\ No newline at end of file
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+}
+
+tasks.test {
+    useJUnitPlatform()
+    // sandmark allocates a lot
+    maxHeapSize = "4g"
+    // e.g. ./gradlew test -PmipsFloor=150
+    systemProperty("um.mipsFloor", findProperty("mipsFloor") ?: "20")
+    // e.g. ./gradlew test -PnarrowArrays=1 runs every array through the byte and char paths
+    findProperty("narrowArrays")?.let { systemProperty("um.narrowArrays", it) }
+    testLogging {
+        showStandardStreams = true
+    }
+}
+
+// ./gradlew jmh, or e.g. ./gradlew jmh -PjmhIncludes=ParserBenchmark
+jmh {
+    jmhVersion.set("1.37")
+    includes.set(listOf(findProperty("jmhIncludes")?.toString() ?: ".*"))
+    // time and bytes allocated per op
+    profilers.set(listOf("gc"))
+    resultFormat.set("CSV")
+}
@@ -0,0 +1,58 @@
+package alexwyler;
+
+import alexwyler.RoomGenerator.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** The room parsers against pile depth; piles nest one list per item, so depth is stack size. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"16", "64", "256", "1024"})
+    int parts;
+
+    @Param({"0", "0.5"})
+    double dupes;
+
+    Room room;
+    String target;
+
+    @Setup
+    public void setUp() {
+        room = new RoomGenerator(parts * 31L + (long) (dupes * 100)).generate(parts, dupes);
+        target = AdventureTrashRoomSolver.norm(room.target().name());
+    }
+
+    @Benchmark
+    public Object parseStack() {
+        return SexpToItems.parseStack(room.sexp());
+    }
+
+    @Benchmark
+    public AdventureTrashRoomSolver trashParse() {
+        return AdventureTrashRoomSolver.parse(room.text());
+    }
+
+    @Benchmark
+    public List<String> trashParseTopo() {
+        return AdventureTrashRoomSolver.parse(room.text()).topo(target);
+    }
+
+}
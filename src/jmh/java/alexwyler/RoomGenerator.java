@@ -0,0 +1,151 @@
+package alexwyler;
+
+import alexwyler.StackSolver.Item;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Random solvable rooms, shaped like the Junk Room in StackSolver.main: a target built from a tree
+ * of parts at most MAX_DEPTH deep, piled up parent first so every part can be built as soon as it
+ * is taken, plus decoys that share a part's name but not its adjective. The same room comes out as
+ * a stack, as the examine S-expression and as the text AdventureTrashRoomSolver reads.
+ */
+final class RoomGenerator {
+
+    // inventory holds the chain of parts being built plus one item to incinerate
+    static final int MAX_DEPTH = StackSolver.CAPACITY - 2;
+    private static final String[] ADJECTIVES = {"red", "blue", "fern-green", "burgundy", "pale-magenta", "peach-yellow",
+        "rotating", "low-carb", "mysterious", "brass", "puce", "pink", "jade", "flax", "khaki", "ochre"};
+
+    record Room(Item target, List<Item> stack, String sexp, String text) {
+    }
+
+    private final Random random;
+
+    RoomGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    private static final class Part {
+        final String name;
+        final int depth;
+        final List<Part> parts = new ArrayList<>();
+
+        Part(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    /** parts items in the target's tree, target included, and about dupes decoys per part. */
+    Room generate(int parts, double dupes) {
+        Set<String> names = new HashSet<>();
+        Part target = new Part("display", 0);
+        List<Part> all = new ArrayList<>(List.of(target));
+        while (all.size() < parts) {
+            Part parent = all.get(random.nextInt(all.size()));
+            if (parent.depth == MAX_DEPTH) {
+                continue;
+            }
+            Part part = new Part(partName(names), parent.depth + 1);
+            parent.parts.add(part);
+            all.add(part);
+        }
+
+        List<Item> stack = new ArrayList<>();
+        pile(target, true, stack);
+        int decoys = (int) Math.round((parts - 1) * dupes);
+        for (int i = 0; i < decoys && parts > 1; i++) {
+            Item like = stack.get(1 + random.nextInt(stack.size() - 1));
+            Set<Item> missing = random.nextBoolean() ? Set.of() : Set.of(new Item(partName(names), null, Set.of()));
+            // under the target, so taking it is never forced
+            stack.add(1 + random.nextInt(stack.size()), new Item(like.name(), otherAdjective(like.adjective()), missing));
+        }
+        return new Room(new Item(target.name, null, Set.of()), stack, sexp(stack), text(stack));
+    }
+
+    private void pile(Part part, boolean target, List<Item> stack) {
+        Set<Item> missing = part.parts.stream()
+            .map(p -> new Item(p.name, null, Set.of()))
+            .collect(Collectors.toSet());
+        stack.add(new Item(part.name, target ? null : ADJECTIVES[random.nextInt(ADJECTIVES.length)], missing));
+        for (Part p : part.parts) {
+            pile(p, false, stack);
+        }
+    }
+
+    private String partName(Set<String> taken) {
+        String name;
+        do {
+            name = String.format("%c-%04d-%c%c%c", letter(), random.nextInt(10000), letter(), letter(), letter());
+        } while (!taken.add(name));
+        return name;
+    }
+
+    private char letter() {
+        return (char) ('A' + random.nextInt(26));
+    }
+
+    private String otherAdjective(String adjective) {
+        String other;
+        do {
+            other = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+        } while (other.equals(adjective));
+        return other;
+    }
+
+    // ---- renderings ----
+
+    static String sexp(List<Item> stack) {
+        StringBuilder sb = new StringBuilder("(success (command (look (room (name \"Generated Room\")"
+            + "(description \"You are in a generated room. \")(items ");
+        for (Item item : stack) {
+            sb.append("((item (name \"").append(item.name()).append("\")(description \"generated\")(adjectives ");
+            if (item.adjective() != null) {
+                sb.append("((adjective \"").append(item.adjective()).append("\") )");
+            }
+            sb.append(")(condition ").append(condition(item)).append(")(piled_on ");
+        }
+        sb.append(")) )".repeat(stack.size()));
+        // items, room, look, command, success
+        return sb.append(")))))").toString();
+    }
+
+    private static String condition(Item item) {
+        if (item.missing().isEmpty()) {
+            return "(pristine )";
+        }
+        StringBuilder sb = new StringBuilder("(broken (condition (pristine ))(missing ");
+        for (Item m : item.missing()) {
+            sb.append("((kind (name \"").append(m.name()).append("\")(condition ").append(condition(m)).append(")) ");
+        }
+        sb.append(")".repeat(item.missing().size()));
+        return sb.append("))").toString();
+    }
+
+    static String text(List<Item> stack) {
+        StringBuilder sb = new StringBuilder("You are in a generated room. \n");
+        for (int i = 0; i < stack.size(); i++) {
+            Item item = stack.get(i);
+            String what = (item.missing().isEmpty() ? "" : "(broken) ") + item.toPlanString();
+            sb.append(i == 0 ? "There is a " + what + " here. \n"
+                : "Underneath the " + stack.get(i - 1).name() + ", there is a " + what + ". \n");
+        }
+        for (Item item : stack) {
+            if (item.missing().isEmpty()) {
+                continue;
+            }
+            sb.append("\n>: The ").append(item.name()).append(" is generated.\nAlso, it is broken: it is a ")
+                .append(item.name()).append(" missing ")
+                .append(item.missing().stream().map(m -> "a " + m.name()).collect(Collectors.joining(" and ")))
+                .append(". \n");
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,57 @@
+package alexwyler;
+
+import alexwyler.RoomGenerator.Room;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StackSolver against stack size and decoy density. first is the plan solve() settles on, anytime
+ * is solve(Duration) until it runs out of shorter plans, capped at ANYTIME_BUDGET.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StackSolverBenchmark {
+
+    static final Duration ANYTIME_BUDGET = Duration.ofSeconds(2);
+
+    @Param({"8", "16", "32", "64"})
+    int parts;
+
+    @Param({"0", "0.25", "0.5"})
+    double dupes;
+
+    Room room;
+
+    @Setup
+    public void setUp() {
+        room = new RoomGenerator(parts * 31L + (long) (dupes * 100)).generate(parts, dupes);
+    }
+
+    @Benchmark
+    public List<String> first() {
+        return new StackSolver(room.stack(), List.of(), room.target()).solve();
+    }
+
+    @Benchmark
+    public StackSolver.Result anytime() {
+        return new StackSolver(room.stack(), List.of(), room.target()).solve(ANYTIME_BUDGET);
+    }
+
+}
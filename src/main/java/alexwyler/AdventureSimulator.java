@@ -0,0 +1,172 @@
+package alexwyler;
+
+import alexwyler.StackSolver.Item;
+import io.vavr.Tuple3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plays the adventure's item rules locally, so plans can be checked without a UMIX session. The
+ * room is one pile, top first as SexpToItems returns it; only the top can be taken, and the
+ * inventory holds StackSolver.CAPACITY items. Unlike AdventureState, which trusts the VM's answer,
+ * every command is checked and failure() says why one was refused.
+ */
+public class AdventureSimulator {
+
+    private final String roomName;
+    private final List<Item> room;
+    private final List<Item> inventory;
+    private String failure = null;
+
+    /** examined is a parseStack result, e.g. of "examine" or "go ...". */
+    public AdventureSimulator(Tuple3<Boolean, List<Item>, String> examined, List<Item> inventory) {
+        if (!examined._1) {
+            throw new IllegalArgumentException("Can't simulate a failed response");
+        }
+        this.roomName = examined._3;
+        this.room = new ArrayList<>(examined._2);
+        this.inventory = new ArrayList<>(inventory);
+    }
+
+    public AdventureSimulator(CharSequence examineResponse) {
+        this(SexpToItems.parseStack(examineResponse), List.of());
+    }
+
+    public String roomName() {
+        return roomName;
+    }
+
+    public List<Item> room() {
+        return Collections.unmodifiableList(room);
+    }
+
+    public List<Item> inventory() {
+        return Collections.unmodifiableList(inventory);
+    }
+
+    /** Why the last refused command was refused. */
+    public String failure() {
+        return failure;
+    }
+
+    /** Runs each line until one is refused; returns its index, or -1 if all of them ran. */
+    public int replay(List<String> plan) {
+        for (int i = 0; i < plan.size(); i++) {
+            if (!execute(plan.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Whether plan runs from here and leaves target in the inventory. */
+    public boolean validates(List<String> plan, Item target) {
+        return replay(plan) < 0 && inventory.contains(target);
+    }
+
+    /** Same contract as AdventureState.execute: false if the game would have refused command. */
+    public boolean execute(String command) {
+        command = command.trim();
+        if (command.startsWith("take ")) {
+            return take(command.substring("take ".length()));
+        }
+        if (command.startsWith("combine ")) {
+            String[] parts = command.substring("combine ".length()).split(" with ", 2);
+            return parts.length == 2 ? combine(parts[0], parts[1]) : fail("No with in " + command);
+        }
+        if (command.startsWith("incinerate ") || command.startsWith("inc ")) {
+            return incinerate(command.substring(command.indexOf(' ') + 1));
+        }
+        if (command.startsWith("examine ")) {
+            String name = command.substring("examine ".length());
+            return resolve(inventory, name) != null || resolve(top(), name) != null || fail("No " + name + " here");
+        }
+        if (command.equals("examine") || command.equals("look") || command.equals("inventory")) {
+            return true;
+        }
+        return fail("Not simulated: " + command);
+    }
+
+    private boolean take(String name) {
+        if (room.isEmpty()) {
+            return fail("Nothing to take");
+        }
+        if (resolve(top(), name) == null) {
+            return fail(resolve(room, name) == null ? "No " + name + " here" : name + " is under " + room.getFirst().toPlanString());
+        }
+        if (inventory.size() >= StackSolver.CAPACITY) {
+            return fail("Inventory full taking " + name);
+        }
+        inventory.add(room.removeFirst());
+        return true;
+    }
+
+    private boolean combine(String first, String second) {
+        Item a = resolve(inventory, first);
+        if (a == null) {
+            return fail("Not holding exactly one " + first);
+        }
+        List<Item> others = new ArrayList<>(inventory);
+        others.remove(a);
+        Item b = resolve(others, second);
+        if (b == null) {
+            return fail("Not holding exactly one other " + second);
+        }
+        if (!a.canCombineWith(b)) {
+            return fail(first + " is not missing " + second);
+        }
+        inventory.set(inventory.indexOf(a), a.combineWith(b));
+        inventory.remove(b);
+        return true;
+    }
+
+    private boolean incinerate(String name) {
+        Item burnt = resolve(inventory, name);
+        if (burnt != null) {
+            inventory.remove(burnt);
+            return true;
+        }
+        if (resolve(top(), name) != null) {
+            room.removeFirst();
+            return true;
+        }
+        return fail("No " + name + " to incinerate");
+    }
+
+    private List<Item> top() {
+        return room.isEmpty() ? List.of() : room.subList(0, 1);
+    }
+
+    /**
+     * The item called name, by plan name or else by bare name as AdventureState does. Null if there
+     * is none, or if the name fits items that differ and the game couldn't tell which.
+     */
+    private Item resolve(List<Item> items, String name) {
+        Item found = unique(items, name, true);
+        return found != null ? found : unique(items, name, false);
+    }
+
+    private Item unique(List<Item> items, String name, boolean planName) {
+        Item found = null;
+        for (Item item : items) {
+            if (!(planName ? item.toPlanString() : item.name()).equals(name)) {
+                continue;
+            }
+            if (found != null && !found.equals(item)) {
+                return null;
+            }
+            if (found == null) {
+                found = item;
+            }
+        }
+        return found;
+    }
+
+    private boolean fail(String why) {
+        failure = why;
+        return false;
+    }
+
+}
@@ -0,0 +1,152 @@
+package alexwyler;
+
+import alexwyler.IO.AsyncCallResponseIO;
+import alexwyler.StackSolver.Item;
+import io.vavr.Tuple3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local copy of the current room and inventory. Commands are applied to the copy as they are
+ * executed, and the VM is only asked again (examine / inventory) when a response disagrees.
+ */
+public class AdventureState {
+
+    final AsyncCallResponseIO asyncIO;
+
+    private String roomName;
+    // null means unknown, fetched again on next access
+    private List<Item> room;
+    private List<Item> inventory;
+
+    public AdventureState(AsyncCallResponseIO asyncIO) {
+        this.asyncIO = asyncIO;
+    }
+
+    public String roomName() {
+        if (room == null) {
+            examine();
+        }
+        return roomName;
+    }
+
+    public List<Item> room() {
+        if (room == null) {
+            examine();
+        }
+        return room;
+    }
+
+    public List<Item> inventory() {
+        if (inventory == null) {
+            inventory = new ArrayList<>(SexpToItems.parseStack(asyncIO.call("inventory"))._2);
+        }
+        return inventory;
+    }
+
+    private void examine() {
+        Tuple3<Boolean, List<Item>, String> parsed = SexpToItems.parseStack(asyncIO.call("examine"));
+        room = new ArrayList<>(parsed._2);
+        roomName = parsed._3;
+    }
+
+    /** Forget everything, e.g. after raw commands were sent straight to the VM. */
+    public void invalidate() {
+        room = null;
+        roomName = null;
+        inventory = null;
+    }
+
+    public boolean execute(String command) {
+        return execute(command, false);
+    }
+
+    /**
+     * Runs one command and applies its effect locally. Returns false if the VM reported a failure, in
+     * which case the local state is dropped and re-read on next access.
+     */
+    public boolean execute(String command, boolean log) {
+        String response = asyncIO.call(command, log);
+        Tuple3<Boolean, List<Item>, String> parsed = SexpToItems.parseStack(response);
+        if (!parsed._1) {
+            invalidate();
+            return false;
+        }
+        if (!apply(command.trim(), parsed)) {
+            invalidate();
+        }
+        return true;
+    }
+
+    private boolean apply(String command, Tuple3<Boolean, List<Item>, String> parsed) {
+        if (command.startsWith("go ")) {
+            // the response describes the new room
+            room = new ArrayList<>(parsed._2);
+            roomName = parsed._3;
+            return roomName != null;
+        }
+        if (command.startsWith("take ")) {
+            String name = command.substring("take ".length());
+            if (room == null) {
+                // something we weren't tracking went into the inventory
+                inventory = null;
+                return true;
+            }
+            Item taken = find(room, name);
+            if (taken == null) {
+                return false;
+            }
+            room.remove(taken);
+            if (inventory != null) {
+                inventory.add(taken);
+            }
+            return true;
+        }
+        if (command.startsWith("combine ")) {
+            String[] parts = command.substring("combine ".length()).split(" with ", 2);
+            if (inventory == null) {
+                return true;
+            }
+            Item a = parts.length == 2 ? find(inventory, parts[0]) : null;
+            Item b = parts.length == 2 ? find(inventory, parts[1]) : null;
+            if (a == null || b == null || a == b || !a.canCombineWith(b)) {
+                return false;
+            }
+            inventory.set(inventory.indexOf(a), a.combineWith(b));
+            inventory.remove(b);
+            return true;
+        }
+        if (command.startsWith("incinerate ") || command.startsWith("inc ")) {
+            String name = command.substring(command.indexOf(' ') + 1);
+            Item burnt;
+            if (inventory != null && (burnt = find(inventory, name)) != null) {
+                inventory.remove(burnt);
+                return true;
+            }
+            if (room != null && (burnt = find(room, name)) != null) {
+                room.remove(burnt);
+                return true;
+            }
+            // burnt something we weren't tracking
+            return room == null || inventory == null;
+        }
+        // examine, use, ... don't move items around
+        return true;
+    }
+
+    private static Item find(List<Item> items, String name) {
+        for (Item item : items) {
+            if (item.toPlanString().equals(name)) {
+                return item;
+            }
+        }
+        for (Item item : items) {
+            if (item.name().equals(name)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+}
@@ -1,56 +1,137 @@
 package alexwyler;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.Multimap;
-import org.jgrapht.Graph;
-import org.jgrapht.graph.DefaultDirectedGraph;
-import org.jgrapht.graph.DefaultEdge;
-import org.jgrapht.traverse.TopologicalOrderIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class AdventureTrashRoomSolver {
 
-    final Multimap<String, String> edges = LinkedHashMultimap.create();
+    // Interned dependency graph: node ids index names and deps
+    final Map<String, Integer> ids = new HashMap<>();
+    final List<String> names = new ArrayList<>();
+    final List<IntArrayList> deps = new ArrayList<>();
+    // Nodes in the order they got their first edge
+    final IntArrayList keys = new IntArrayList();
+
+    // Computed on first query, dropped when an edge is added
+    private int[] topoOrder;
+    private BitSet[] cones;
+    private final Map<String, List<String>> topoCache = new HashMap<>();
 
     public static AdventureTrashRoomSolver parse(String text) {
         AdventureTrashRoomSolver p = new AdventureTrashRoomSolver();
-        String[] lines = text.replace("\r\n", "\n").split("\n");
-        Pattern subjP = Pattern.compile("^>?:?\\s*The\\s+(.+?)\\s+is\\b.*", Pattern.CASE_INSENSITIVE);
-        Pattern brokenP = Pattern.compile("^\\s*Also,\\s+it\\s+is\\s+broken:\\s+it\\s+is\\s+(.+)", Pattern.CASE_INSENSITIVE);
+        // line bounds, "\r\n" and "\n" both end a line
+        IntArrayList bounds = new IntArrayList();
+        int lineStart = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                int lineEnd = i > lineStart && text.charAt(i - 1) == '\r' ? i - 1 : i;
+                bounds.add(lineStart);
+                bounds.add(lineEnd);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart < text.length()) {
+            bounds.add(lineStart);
+            bounds.add(text.length());
+        }
+        int lines = bounds.size() / 2;
 
         String subject = null;
-        for (int i = 0; i < lines.length; i++) {
-            String line = lines[i];
+        for (int i = 0; i < lines; i++) {
+            int from = bounds.getInt(2 * i);
+            int to = bounds.getInt(2 * i + 1);
 
-            Matcher ms = subjP.matcher(line);
-            if (ms.find()) {
-                subject = ms.group(1).trim();
+            String subj = matchSubject(text, from, to);
+            if (subj != null) {
+                subject = subj;
             }
 
-            Matcher mb = brokenP.matcher(line);
-            if (mb.find() && subject != null) {
-                String tail = mb.group(1).trim();
+            int tailStart = matchBroken(text, from, to);
+            if (tailStart >= 0 && subject != null) {
+                StringBuilder tail = new StringBuilder(text.substring(tailStart, to).trim());
                 int j = i + 1;
-                while (!tail.endsWith(".") && j < lines.length) {
-                    String nxt = lines[j].trim();
+                while (!endsWith(tail, '.') && j < lines) {
+                    String nxt = text.substring(bounds.getInt(2 * j), bounds.getInt(2 * j + 1)).trim();
                     if (nxt.startsWith(">:") || nxt.isEmpty()) {
                         break;
                     }
-                    tail += " " + nxt;
+                    tail.append(' ').append(nxt);
                     j++;
                 }
-                p.addBroken(subject, tail);
+                p.addBroken(subject, tail.toString());
             }
         }
         return p;
     }
 
+    private static boolean endsWith(StringBuilder b, char c) {
+        return b.length() > 0 && b.charAt(b.length() - 1) == c;
+    }
+
+    /** {@code >:The <subject> is ...}, returns the trimmed subject or null */
+    static String matchSubject(String s, int p, int end) {
+        if (p < end && s.charAt(p) == '>') {
+            p++;
+        }
+        if (p < end && s.charAt(p) == ':') {
+            p++;
+        }
+        p = skipSpace(s, p, end);
+        if (!s.regionMatches(true, p, "the", 0, 3) || p + 3 >= end || !isSpace(s.charAt(p + 3))) {
+            return null;
+        }
+        int subjStart = skipSpace(s, p + 3, end);
+        for (int k = subjStart + 1; k < end; k++) {
+            if (!isSpace(s.charAt(k))) {
+                continue;
+            }
+            int w = skipSpace(s, k, end);
+            if (w + 2 <= end && s.regionMatches(true, w, "is", 0, 2) && (w + 2 == end || !isWordChar(s.charAt(w + 2)))) {
+                return s.substring(subjStart, k).trim();
+            }
+        }
+        return null;
+    }
+
+    private static final String[] BROKEN_WORDS = {"also,", "it", "is", "broken:", "it", "is"};
+
+    /** {@code Also, it is broken: it is <tail>}, returns where the tail starts or -1 */
+    static int matchBroken(String s, int p, int end) {
+        p = skipSpace(s, p, end);
+        for (String word : BROKEN_WORDS) {
+            if (!s.regionMatches(true, p, word, 0, word.length())) {
+                return -1;
+            }
+            p += word.length();
+            int q = skipSpace(s, p, end);
+            if (q == p || q == end) {
+                return -1;
+            }
+            p = q;
+        }
+        return p;
+    }
+
+    // regex \s
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    static boolean isWordChar(char c) {
+        return c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static int skipSpace(String s, int p, int end) {
+        while (p < end && isSpace(s.charAt(p))) {
+            p++;
+        }
+        return p;
+    }
+
     static String stripDot(String s) {
         return s.endsWith(".") ? s.substring(0, s.length() - 1).trim() : s;
     }
@@ -113,12 +194,42 @@ public class AdventureTrashRoomSolver {
         return out;
     }
 
+    private static final String[] ARTICLES = {"a", "an", "the"};
+
     static String norm(String s) {
         s = peel(s);
-        s = s.replaceFirst("^(?i)(a|an|the)\\s+", "");
-        s = s.replaceFirst("^\\(\\s*(?i:broken)\\s*\\)\\s*", "");
-        s = s.replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
-        return s;
+        int p = 0;
+        int n = s.length();
+        // drop a leading article
+        for (String article : ARTICLES) {
+            int len = article.length();
+            if (len < n && s.regionMatches(true, 0, article, 0, len) && isSpace(s.charAt(len))) {
+                p = skipSpace(s, len, n);
+                break;
+            }
+        }
+        // then a leading "(broken)"
+        if (p < n && s.charAt(p) == '(') {
+            int q = skipSpace(s, p + 1, n);
+            if (s.regionMatches(true, q, "broken", 0, 6)) {
+                q = skipSpace(s, q + 6, n);
+                if (q < n && s.charAt(q) == ')') {
+                    p = skipSpace(s, q + 1, n);
+                }
+            }
+        }
+        // collapse whitespace and lower-case
+        StringBuilder b = new StringBuilder(n - p);
+        for (int i = p; i < n; i++) {
+            char c = s.charAt(i);
+            if (isSpace(c)) {
+                i = skipSpace(s, i, n) - 1;
+                b.append(' ');
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString().trim().toLowerCase(Locale.ROOT);
     }
 
     private static String readResourceOrDie(String name) {
@@ -174,74 +285,158 @@ public class AdventureTrashRoomSolver {
             addEdge(state, c);
         }
         // ensure base appears (no-op edge)
-        edges.put(base, base);
+        addEdge(base, base);
         return state;
     }
 
-    void addEdge(String a, String b) {edges.put(a, b);}
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            ids.put(name, id);
+            names.add(name);
+            deps.add(new IntArrayList(2));
+        }
+        return id;
+    }
+
+    void addEdge(String a, String b) {
+        int ia = intern(a);
+        int ib = intern(b);
+        IntArrayList out = deps.get(ia);
+        if (out.isEmpty()) {
+            keys.add(ia);
+        }
+        if (!out.contains(ib)) {
+            out.add(ib);
+            topoOrder = null;
+            cones = null;
+            topoCache.clear();
+        }
+    }
 
     void printAdjacency(PrintStream out) {
-        for (var k : new LinkedHashSet<>(edges.keySet())) {
-            var deps = new LinkedHashSet<>(edges.get(k));
-            deps.remove(k);
-            if (deps.isEmpty()) {
+        for (int k : keys) {
+            List<String> ds = new ArrayList<>();
+            for (int d : deps.get(k)) {
+                if (d != k) {
+                    ds.add(names.get(d));
+                }
+            }
+            if (ds.isEmpty()) {
                 continue;
             }
-            out.println(k + " -> " + String.join(", ", deps));
+            out.println(names.get(k) + " -> " + String.join(", ", ds));
         }
     }
 
     void printDOT(PrintStream out) {
         out.println("digraph deps { rankdir=LR; node [shape=box,fontname=Helvetica];");
-        Set<String> all = new LinkedHashSet<>(edges.keySet());
-        for (var a : all) {
-            for (var b : edges.get(a)) {
-                if (a.equals(b)) {
+        for (int a : keys) {
+            for (int b : deps.get(a)) {
+                if (a == b) {
                     continue;
                 }
-                out.printf("  \"%s\" -> \"%s\";%n", a, b);
-            }
-            if (edges.get(a).isEmpty()) {
-                out.printf("  \"%s\";%n", a);
+                out.printf("  \"%s\" -> \"%s\";%n", names.get(a), names.get(b));
             }
         }
         out.println("}");
     }
 
+    /** Topological order of everything 'target' depends on, target included. */
     List<String> topo(String target) {
-        Graph<String, DefaultEdge> g = new DefaultDirectedGraph<>(DefaultEdge.class);
-        for (var a : edges.keySet()) {
-            g.addVertex(a);
-            for (var b : edges.get(a)) {
-                g.addVertex(b);
-                if (!a.equals(b)) {
-                    g.addEdge(a, b);
+        List<String> cached = topoCache.get(target);
+        if (cached != null) {
+            return cached;
+        }
+        Integer id = ids.get(target);
+        List<String> order = new ArrayList<>();
+        if (id != null) {
+            BitSet needed = collect(id);
+            for (int n : topoOrder()) {
+                if (needed.get(n)) {
+                    order.add(names.get(n));
                 }
             }
         }
-        List<String> order = new ArrayList<>();
-        var it = new TopologicalOrderIterator<>(g);
-        while (it.hasNext()) {
-            order.add(it.next());
-        }
-        // filter to the cone-of-influence of 'target'
-        Set<String> needed = new LinkedHashSet<>();
-        collect(target, needed);
-        order.retainAll(needed);
+        order = Collections.unmodifiableList(order);
+        topoCache.put(target, order);
         return order;
     }
 
-    void collect(String n, Set<String> acc) {
-        if (!acc.add(n)) {
-            return;
+    /**
+     * Kahn's algorithm over the whole graph, FIFO, seeded with nodes in the order keys and then their
+     * deps were first seen.
+     */
+    private int[] topoOrder() {
+        if (topoOrder != null) {
+            return topoOrder;
         }
-        // Multimap#get never returns null; use emptyList when key absent
-        Collection<String> deps = edges.containsKey(n) ? edges.get(n) : Collections.emptyList();
-        for (String d : deps) {
-            if (!d.equals(n)) {
-                collect(d, acc);
+        int n = names.size();
+        IntArrayList vertices = new IntArrayList(n);
+        boolean[] seen = new boolean[n];
+        int[] inDegree = new int[n];
+        for (int a : keys) {
+            if (!seen[a]) {
+                seen[a] = true;
+                vertices.add(a);
+            }
+            for (int b : deps.get(a)) {
+                if (!seen[b]) {
+                    seen[b] = true;
+                    vertices.add(b);
+                }
+                if (a != b) {
+                    inDegree[b]++;
+                }
+            }
+        }
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int v : vertices) {
+            if (inDegree[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int d : deps.get(v)) {
+                if (d != v && --inDegree[d] == 0) {
+                    queue[tail++] = d;
+                }
+            }
+        }
+        if (tail != vertices.size()) {
+            throw new IllegalStateException("Dependency cycle");
+        }
+        topoOrder = Arrays.copyOf(queue, tail);
+        return topoOrder;
+    }
+
+    /** Cone of influence of node n: n and everything it (transitively) depends on. */
+    BitSet collect(int n) {
+        if (cones == null) {
+            cones = new BitSet[names.size()];
+        }
+        if (cones[n] != null) {
+            return cones[n];
+        }
+        BitSet acc = new BitSet(names.size());
+        IntArrayList stack = new IntArrayList();
+        stack.add(n);
+        acc.set(n);
+        while (!stack.isEmpty()) {
+            int cur = stack.removeInt(stack.size() - 1);
+            for (int d : deps.get(cur)) {
+                if (!acc.get(d)) {
+                    acc.set(d);
+                    stack.add(d);
+                }
             }
         }
+        cones[n] = acc;
+        return acc;
     }
 
 }
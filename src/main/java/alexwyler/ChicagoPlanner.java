@@ -0,0 +1,121 @@
+package alexwyler;
+
+import alexwyler.RoomMap.Room;
+import alexwyler.StackSolver.Item;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Plans the core needs being carried together: every missing part is assigned to a room, rooms
+ * holding several parts are preferred so one visit serves them all, and the rooms are visited in
+ * nearest-first order. Each part is combined into its core need as soon as it is dug out, so the
+ * inventory only ever holds the core needs plus whatever StackSolver uses while digging.
+ * ChicagoSolver decides how many core needs are carried at a time.
+ * <p>
+ * Only the first level of each core need's missing tree becomes tasks. A deeper entry is part of
+ * how its parent part has to look when it goes in, so the dig for the parent builds it (StackSolver
+ * targets the part with its missing set), and the item model has no step that fits it on its own.
+ */
+public class ChicagoPlanner {
+
+    /** A part to dig out and the core need it goes into. */
+    record Task(Item coreNeed, Item part) {
+        String combine() {
+            return "combine " + coreNeed.name() + " with " + part.name();
+        }
+    }
+
+    record Stop(String room, List<Task> tasks) {
+    }
+
+    final RoomMap map;
+
+    public ChicagoPlanner(RoomMap map) {
+        this.map = map;
+    }
+
+    public List<Stop> plan(String from, List<Item> coreNeeds) {
+        List<Task> open = new ArrayList<>();
+        for (Item coreNeed : coreNeeds) {
+            for (Item part : coreNeed.missing()) {
+                open.add(new Task(coreNeed, part));
+            }
+        }
+
+        // greedy cover: the room serving the most open tasks, closest first on ties. Each item in a
+        // room serves one task, and a chosen room's items are used up for later picks
+        Map<String, List<Item>> unused = new LinkedHashMap<>();
+        for (Room room : map.rooms()) {
+            unused.put(room.name, new ArrayList<>(room.items));
+        }
+        Map<String, List<Task>> byRoom = new LinkedHashMap<>();
+        while (!open.isEmpty()) {
+            String best = null;
+            List<Task> bestTasks = List.of();
+            List<Item> bestUsed = List.of();
+            int bestDistance = Integer.MAX_VALUE;
+            for (var room : unused.entrySet()) {
+                List<String> path = map.path(from, room.getKey());
+                if (path == null) {
+                    continue;
+                }
+                List<Item> items = new ArrayList<>(room.getValue());
+                List<Task> served = new ArrayList<>();
+                List<Item> used = new ArrayList<>();
+                for (Task task : open) {
+                    for (Item it : items) {
+                        if (RoomMap.yields(it, task.part())) {
+                            items.remove(it);
+                            served.add(task);
+                            used.add(it);
+                            break;
+                        }
+                    }
+                }
+                if (served.size() > bestTasks.size()
+                    || (!served.isEmpty() && served.size() == bestTasks.size() && path.size() < bestDistance)) {
+                    best = room.getKey();
+                    bestTasks = served;
+                    bestUsed = used;
+                    bestDistance = path.size();
+                }
+            }
+            if (best == null) {
+                throw new RuntimeException("No room has any of " + open);
+            }
+            byRoom.computeIfAbsent(best, k -> new ArrayList<>()).addAll(bestTasks);
+            bestUsed.forEach(unused.get(best)::remove);
+            // one at a time: equal tasks (two alike core needs) are only served as often as matched
+            bestTasks.forEach(open::remove);
+        }
+
+        // nearest neighbour tour over the chosen rooms
+        List<Stop> stops = new ArrayList<>();
+        Set<String> left = new LinkedHashSet<>(byRoom.keySet());
+        String here = from;
+        while (!left.isEmpty()) {
+            String next = null;
+            int nextDistance = Integer.MAX_VALUE;
+            for (String room : left) {
+                List<String> path = map.path(here, room);
+                if (path != null && path.size() < nextDistance) {
+                    next = room;
+                    nextDistance = path.size();
+                }
+            }
+            if (next == null) {
+                throw new RuntimeException("No way from " + here + " to any of " + left);
+            }
+            left.remove(next);
+            stops.add(new Stop(next, byRoom.get(next)));
+            here = next;
+        }
+        return stops;
+    }
+
+}
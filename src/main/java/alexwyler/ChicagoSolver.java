@@ -4,15 +4,28 @@ import alexwyler.IO.AsyncCallResponseIO;
 import alexwyler.IO.SystemInOut;
 import alexwyler.StackSolver.Item;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public class ChicagoSolver {
 
+    // per dig; a room that takes longer is given up on and the part fetched elsewhere
+    static final Duration DIG_BUDGET = Duration.ofSeconds(20);
+    // times a dig solves again from where its plan went wrong before giving up
+    static final int MAX_RESUMES = 3;
+    // inventory slots left free for StackSolver while core needs are carried around
+    static final int DIG_SLOTS = StackSolver.CAPACITY / 2;
+
     final AsyncCallResponseIO asyncIO;
+    final AdventureState state;
+    RoomMap map;
 
     public ChicagoSolver(AsyncCallResponseIO asyncIO) {
         this.asyncIO = asyncIO;
+        this.state = new AdventureState(asyncIO);
     }
 
     public void log(Object message) {
@@ -20,79 +33,146 @@ public class ChicagoSolver {
     }
 
     public void solve() {
-        List<Item> coreNeeds = SexpToItems.parseStack(asyncIO.call("examine"))._2;
+        List<Item> coreNeeds = List.copyOf(state.room());
         log("Core needs: " + coreNeeds);
-        for (Item coreNeed : coreNeeds) {
-            asyncIO.call("take " + coreNeed.name(), true);
-            log("Inventory: " + SexpToItems.parseStack(asyncIO.call("inventory")));
-            for (Item coreNeedMissing : coreNeed.missing()) {
-                log("Trying to build " + coreNeedMissing);
-                boolean found = dfsLooking(coreNeedMissing, new java.util.HashSet<>());
-                if (!found) {
-                    throw new RuntimeException("Could not build " + coreNeedMissing);
-                } else {
-                    log("Built " + coreNeedMissing);
-                    log("Inventory: " + SexpToItems.parseStack(asyncIO.call("inventory")));
-                    asyncIO.call("combine " + coreNeed.name() + " with " + coreNeedMissing.name(), true);
-                    log(SexpToItems.parseStack(asyncIO.call("inventory"))._2);
-                    log(SexpToItems.parseStack(asyncIO.call("examine"))._3);
+        try (var span = Latency.start("chicago.explore")) {
+            map = RoomMap.explore(state);
+        }
+        log("Explored " + map.rooms());
+        String start = state.roomName();
+        List<Item> left = new ArrayList<>(coreNeeds);
+        while (!left.isEmpty()) {
+            // fixed core needs stay in the inventory; once they crowd it, one core need per round
+            int carry = Math.max(1, StackSolver.CAPACITY - DIG_SLOTS - state.inventory().size());
+            List<Item> round = new ArrayList<>(left.subList(0, Math.min(carry, left.size())));
+            left.subList(0, round.size()).clear();
+            walkTo(start);
+            for (Item coreNeed : round) {
+                if (!state.execute("take " + coreNeed.name(), true)) {
+                    throw new RuntimeException("Could not take " + coreNeed + " in " + start);
+                }
+            }
+            map.updateItems(start, state.room());
+            log("Inventory: " + state.inventory());
+            solveRound(start, round);
+        }
+    }
 
+    private void solveRound(String start, List<Item> coreNeeds) {
+        List<ChicagoPlanner.Stop> stops;
+        try (var span = Latency.start("chicago.plan")) {
+            stops = new ChicagoPlanner(map).plan(start, coreNeeds);
+        }
+        log("Route: " + stops);
+        for (var stop : stops) {
+            walkTo(stop.room());
+            for (var task : stop.tasks()) {
+                log("Trying to build " + task.part());
+                try {
+                    dig(task.part());
+                } catch (RuntimeException e) {
+                    // someone else's dig took it, or the stack doesn't work out here
+                    log("Could not build " + task.part() + " in " + stop.room() + ": " + e.getMessage());
+                    if (!fetch(task.part())) {
+                        throw new RuntimeException("Could not build " + task.part());
+                    }
                 }
+                log("Built " + task.part());
+                try (var span = Latency.start("chicago.combine")) {
+                    if (!state.execute(task.combine(), true)) {
+                        throw new RuntimeException("Could not " + task.combine() + ", inventory " + state.inventory());
+                    }
+                }
+                log("Inventory: " + state.inventory());
             }
+            map.updateItems(state.roomName(), state.room());
         }
+    }
 
+    void walkTo(String roomName) {
+        try (var span = Latency.start("chicago.walk")) {
+            walk(roomName);
+        }
     }
 
-    private boolean dfsLooking(Item lookingFor, Set<String> visitedRooms) {
-        String rawSexp = asyncIO.call("examine");
-        var roomInfo = SexpToItems.parseStack(rawSexp);
-        if (!roomInfo._1) {
-            return false;
+    private void walk(String roomName) {
+        List<String> path = map.path(state.roomName(), roomName);
+        if (path == null) {
+            throw new RuntimeException("No way from " + state.roomName() + " to " + roomName);
         }
-        var roomName = roomInfo._3;
-        if (!visitedRooms.add(roomName)) {
-            return false;
+        for (String direction : path) {
+            if (!state.execute("go " + direction, true)) {
+                throw new RuntimeException("Could not go " + direction + " on the way to " + roomName);
+            }
         }
-        var inRoom = roomInfo._2;
-        log("In room " + roomName + ", items: " + inRoom);
-        var foundInRoom = inRoom.stream()
-            .filter(lf -> lf.name().equals(lookingFor.name()))
-            .findFirst()
-            .orElse(null);
-
-        if (foundInRoom != null) {
-            log("Found " + lookingFor + " in room " + roomName + ", room: " + inRoom);
-            log("Raw room info: " + rawSexp);
-            var inventory = SexpToItems.parseStack(asyncIO.call("inventory"))._2;
-            log("Inventory: " + inventory);
-            log("Solving to get " + lookingFor + " from " + inRoom + " with inventory " + inventory);
-            StackSolver stackSolver = new StackSolver(roomInfo._2, inventory, lookingFor);
-            var plan = stackSolver.solve();
-            log("Plan to get " + lookingFor + ": " + plan);
-            plan.forEach(planLine -> {
-                log("Inventory: " + SexpToItems.parseStack(asyncIO.call("inventory", true))._2);
-                if (!SexpToItems.parseStack(asyncIO.call(planLine, true))._1) {
-                    throw new RuntimeException("Failed to execute plan line: " + planLine + " to get " + lookingFor);
-                }
-            });
-            return true;
+    }
+
+    /** Digs lookingFor out of the nearest other room that has one, trying rooms until one works. */
+    private boolean fetch(Item lookingFor) {
+        Set<String> tried = new HashSet<>();
+        tried.add(state.roomName());
+        map.updateItems(state.roomName(), state.room());
+        while (true) {
+            var room = map.nearestWith(state.roomName(), lookingFor, tried);
+            if (room == null) {
+                return false;
+            }
+            tried.add(room.name);
+            walkTo(room.name);
+            try {
+                dig(lookingFor);
+                return true;
+            } catch (RuntimeException e) {
+                log("Could not build " + lookingFor + " in " + room.name + ": " + e.getMessage());
+            } finally {
+                map.updateItems(room.name, state.room());
+            }
         }
+    }
 
-        for (var directions : List.of(List.of("north", "south"), List.of("east", "west"))) {
-            for (var direction : directions) {
-                var goInfo = SexpToItems.parseStack(asyncIO.call("go " + direction, true));
-                if (!goInfo._1) {
-                    continue;
-                }
+    private void dig(Item lookingFor) {
+        try (var span = Latency.start("chicago.dig")) {
+            digFor(lookingFor);
+        }
+    }
 
-                boolean result = dfsLooking(lookingFor, visitedRooms);
-                String opposite = directions.get((directions.indexOf(direction) + 1) % 2);
-                asyncIO.call("go " + opposite, true);
-                return result;
+    private void digFor(Item lookingFor) {
+        var inRoom = state.room();
+        log("Looking for " + lookingFor + " in room " + state.roomName() + ", room: " + inRoom);
+        var inventory = List.copyOf(state.inventory());
+        log("Solving to get " + lookingFor + " from " + inRoom + " with inventory " + inventory);
+        StackSolver stackSolver = new StackSolver(List.copyOf(inRoom), inventory, lookingFor);
+        var result = stackSolver.solve(DIG_BUDGET);
+        for (int resumes = 0; ; resumes++) {
+            log("Searched " + result.statesVisited() + " states" + (result.timedOut() ? " before timing out" : ""));
+            if (!result.solved()) {
+                throw new RuntimeException("No plan to get " + lookingFor + " within " + DIG_BUDGET);
             }
+            var plan = result.plan();
+            log("Plan to get " + lookingFor + ": " + plan);
+            String failed = execute(plan);
+            if (failed == null) {
+                return;
+            }
+            if (resumes == MAX_RESUMES) {
+                throw new RuntimeException("Failed to execute plan line: " + failed + " to get " + lookingFor);
+            }
+            // state was invalidated by the failure, so this reads what really happened
+            log("Failed to execute plan line: " + failed + ", solving again from room " + state.room()
+                + " with inventory " + state.inventory());
+            result = stackSolver.resume(List.copyOf(state.room()), List.copyOf(state.inventory()), DIG_BUDGET);
         }
+    }
 
-        return false;
+    /** Runs plan until a line fails; returns that line, or null if all of them worked. */
+    private String execute(List<String> plan) {
+        for (String planLine : plan) {
+            log("Inventory: " + state.inventory());
+            if (!state.execute(planLine, true)) {
+                return planLine;
+            }
+        }
+        return null;
     }
 
 
@@ -0,0 +1,111 @@
+package alexwyler;
+
+import java.util.Arrays;
+
+/**
+ * Visited-state store with a hard memory cap. Each entry is one long: the top 48 bits of a 64-bit
+ * state fingerprint and a 16-bit value (the plan length the state was seen at). Buckets hold 8
+ * entries, 64 bytes. The table doubles at half full until it reaches maxBytes; a full bucket evicts
+ * its entry with the largest value, like a chess transposition table keeping the entries nearest
+ * the root.
+ * <p>
+ * An evicted state just gets searched again. Two states sharing a fingerprint would wrongly prune
+ * one, but with 48-bit tags inside a bucket that is vanishingly rare.
+ */
+final class FingerprintTable {
+
+    static final int BUCKET = 8;
+    private static final int MIN_SLOTS = 1 << 12;
+    private static final long VALUE_MASK = 0xFFFF;
+
+    private final int maxSlots;
+    private long[] slots;
+    private long size = 0;
+    private long evictions = 0;
+
+    FingerprintTable(long maxBytes) {
+        long max = Math.max(MIN_SLOTS, Math.min(maxBytes / Long.BYTES, 1 << 30));
+        this.maxSlots = Integer.highestOneBit((int) max);
+        this.slots = new long[Math.min(MIN_SLOTS, maxSlots)];
+    }
+
+    /** The value stored for fingerprint, or -1. */
+    int get(long fingerprint) {
+        long tag = tag(fingerprint);
+        int base = bucket(fingerprint, slots.length);
+        for (int i = base; i < base + BUCKET; i++) {
+            if ((slots[i] & ~VALUE_MASK) == tag) {
+                return (int) (slots[i] & VALUE_MASK);
+            }
+        }
+        return -1;
+    }
+
+    void put(long fingerprint, int value) {
+        if (size >= slots.length / 2 && slots.length < maxSlots) {
+            grow();
+        }
+        long entry = tag(fingerprint) | Math.min(value, VALUE_MASK);
+        int base = bucket(fingerprint, slots.length);
+        int victim = -1;
+        for (int i = base; i < base + BUCKET; i++) {
+            if (slots[i] == 0 || (slots[i] & ~VALUE_MASK) == (entry & ~VALUE_MASK)) {
+                if (slots[i] == 0) {
+                    size++;
+                }
+                slots[i] = entry;
+                return;
+            }
+            if (victim < 0 || (slots[i] & VALUE_MASK) > (slots[victim] & VALUE_MASK)) {
+                victim = i;
+            }
+        }
+        slots[victim] = entry;
+        evictions++;
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    long size() {
+        return size;
+    }
+
+    long evictions() {
+        return evictions;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        size = 0;
+        for (long entry : old) {
+            if (entry != 0) {
+                put(entry, (int) (entry & VALUE_MASK));
+            }
+        }
+    }
+
+    private static long tag(long fingerprint) {
+        long tag = fingerprint & ~VALUE_MASK;
+        return tag == 0 ? 1L << 16 : tag;
+    }
+
+    private static int bucket(long fingerprint, int length) {
+        // tag bits, so grow() can find the bucket again
+        return (int) (fingerprint >>> 16) & (length - BUCKET);
+    }
+
+    /** 64-bit mix (murmur3 finalizer). */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
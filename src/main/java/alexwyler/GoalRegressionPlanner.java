@@ -0,0 +1,174 @@
+package alexwyler;
+
+import alexwyler.StackSolver.Item;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Plans backward from the target instead of searching forward. For the target, and then for
+ * everything its chosen base item is missing, it picks a stack item that can be repaired into what
+ * is needed: the shallowest for the target, the one nearest its parent for parts, so parts aren't
+ * carried around for long. Then it digs down to the deepest chosen item, incinerating every other
+ * item on the way, and combines each part as soon as it is complete.
+ * <p>
+ * Gives up (returns false) when no assignment exists, the inventory would overflow or names are
+ * ambiguous, and StackSolver searches instead.
+ */
+class GoalRegressionPlanner {
+
+    private final List<Item> stack;
+    private final List<Item> inventory;
+    private final Item target;
+
+    // stack indexes of the items the target is built from
+    private final List<Integer> chosen = new ArrayList<>();
+
+    GoalRegressionPlanner(List<Item> stack, List<Item> inventory, Item target) {
+        this.stack = stack;
+        this.inventory = inventory;
+        this.target = target;
+    }
+
+    /** Same contract as StackSolver.dfs: fills plan and leaves inv as it ends up. */
+    boolean plan(List<Item> inv, List<String> plan) {
+        if (inv.contains(target)) {
+            return true;
+        }
+        if (!assign(target, true, -1)) {
+            return false;
+        }
+        BitSet keep = new BitSet();
+        for (int source : chosen) {
+            keep.set(source);
+        }
+
+        for (int idx = 0; idx < keep.length(); idx++) {
+            Item next = stack.get(idx);
+            if (named(inv, next.toPlanString()) > 0) {
+                // "take" / "incinerate" by name would be ambiguous
+                return false;
+            }
+            inv.add(next);
+            plan.add("take " + next.toPlanString());
+            if (inv.size() > StackSolver.CAPACITY) {
+                return false;
+            }
+            if (!keep.get(idx)) {
+                inv.removeLast();
+                plan.add("incinerate " + next.toPlanString());
+                continue;
+            }
+            if (!combineReady(inv, plan)) {
+                return false;
+            }
+        }
+        return inv.contains(target);
+    }
+
+    /** Combines every part that is ready with the item missing it, until nothing changes. */
+    private boolean combineReady(List<Item> inv, List<String> plan) {
+        boolean combined = true;
+        while (combined) {
+            combined = false;
+            for (int i = 0; i < inv.size() && !combined; i++) {
+                Item a = inv.get(i);
+                if (inventory.contains(a)) {
+                    // what we came in with is never touched, on either side
+                    continue;
+                }
+                for (int j = 0; j < inv.size(); j++) {
+                    Item b = inv.get(j);
+                    if (i == j || inventory.contains(b) || !a.canCombineWith(b)) {
+                        continue;
+                    }
+                    if (named(inv, a.toPlanString()) > 1 || named(inv, b.toPlanString()) > 1) {
+                        return false;
+                    }
+                    inv.set(i, a.combineWith(b));
+                    inv.remove(j);
+                    plan.add("combine " + a.toPlanString() + " with " + b.toPlanString());
+                    combined = true;
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int named(List<Item> inv, String name) {
+        int n = 0;
+        for (Item item : inv) {
+            if (item.toPlanString().equals(name)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Picks a source that can be repaired into spec and, recursively, sources for whatever else that
+     * source is missing. exact means the adjective has to match too, as it does for the target.
+     * Candidates nearest to near come first.
+     */
+    private boolean assign(Item spec, boolean exact, int near) {
+        int mark = chosen.size();
+        List<Integer> sources = new ArrayList<>();
+        for (int source = 0; source < stack.size(); source++) {
+            if (!chosen.contains(source)) {
+                sources.add(source);
+            }
+        }
+        sources.sort(Comparator.comparingInt((Integer source) -> Math.abs(source - near)).thenComparingInt(source -> source));
+        for (int source : sources) {
+            Item candidate = stack.get(source);
+            if (!candidate.name().equals(spec.name()) || (exact && !Objects.equals(candidate.adjective(), spec.adjective()))) {
+                continue;
+            }
+            List<Item> extra = extraMissing(candidate, spec);
+            if (extra == null) {
+                continue;
+            }
+            chosen.add(source);
+            boolean ok = true;
+            for (Item part : extra) {
+                if (!assign(part, false, source)) {
+                    ok = false;
+                    break;
+                }
+            }
+            if (ok) {
+                return true;
+            }
+            chosen.subList(mark, chosen.size()).clear();
+        }
+        return false;
+    }
+
+    /**
+     * What candidate is missing beyond what spec is allowed to be missing, or null if spec is
+     * missing something candidate isn't.
+     */
+    private static List<Item> extraMissing(Item candidate, Item spec) {
+        Map<String, Integer> allowed = new HashMap<>();
+        for (Item m : spec.missing()) {
+            allowed.merge(m.sansAdjectiveKey(), 1, Integer::sum);
+        }
+        List<Item> extra = new ArrayList<>();
+        for (Item m : candidate.missing()) {
+            Integer n = allowed.remove(m.sansAdjectiveKey());
+            if (n == null) {
+                extra.add(m);
+            } else if (n > 1) {
+                allowed.put(m.sansAdjectiveKey(), n - 1);
+            }
+        }
+        return allowed.isEmpty() ? extra : null;
+    }
+
+}
@@ -3,9 +3,12 @@ package alexwyler;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntConsumer;
 import java.util.function.IntSupplier;
 import java.util.stream.Collectors;
@@ -18,6 +21,26 @@ public interface IO {
 
     boolean isDone();
 
+    /** Whether getIn() can answer without blocking. VM.run(long) suspends on OP_IN while false. */
+    default boolean inputReady() {
+        return true;
+    }
+
+    /**
+     * Whether output written so far has to be picked up before getOut() takes more. VM.run(long)
+     * suspends on OP_OUT while true.
+     */
+    default boolean outputReady() {
+        return false;
+    }
+
+    /**
+     * Called by VM.run(long) before it returns, so output buffered during the slice can be handed
+     * over in one go.
+     */
+    default void sliceEnded() {
+    }
+
     default void log(Object message) {
         System.out.println("====LOG====> " + message);
     }
@@ -117,20 +140,58 @@ public interface IO {
         final IntConsumer asyncOut;
         volatile boolean log = false;
 
-        private final BlockingQueue<Integer> inputQueue = new LinkedBlockingQueue<>();
+        // whole commands or uploads; only the VM thread reads, from the head chunk at inputAt
+        private final BlockingQueue<Input> inputQueue = new LinkedBlockingQueue<>();
+        private byte[] input = new byte[0];
+        private int inputAt = 0;
+        // a call() is waiting for the output of the input being read; false for callUntil input
+        private boolean owed = true;
         private final BlockingQueue<String> outputQueue = new LinkedBlockingQueue<>();
         private final StringBuffer outputBuffer = new StringBuffer();
+        // the response was handed over and nothing has been read since
+        private volatile boolean flushed = false;
+        private volatile long flushedAt = 0;
+        private volatile Runnable onInput = () -> {};
+        // the callUntil whose command the VM is reading, until one of its prompts shows up
+        private volatile Framed framed = null;
+        // VM side only: the callUntil whose command was read last, matched or not
+        private Framed reading = null;
+
+        /** framed is null for input sent by call(). */
+        private record Input(byte[] bytes, Framed framed) {
+        }
 
+        private static final class Framed {
+            final PromptMatcher matcher;
+            final CompletableFuture<String> response = new CompletableFuture<>();
+
+            Framed(PromptMatcher matcher) {
+                this.matcher = matcher;
+            }
+        }
 
         public AsyncCallResponseIO() {
 
             asyncIn = () -> {
-                if (inputQueue.isEmpty()) {
-                    outputQueue.add(outputBuffer.toString());
-                    outputBuffer.setLength(0);
-                }
                 try {
-                    int ret = inputQueue.take();
+                    while (inputAt == input.length) {
+                        if (inputQueue.isEmpty()) {
+                            flush();
+                        }
+                        Input next = inputQueue.take();
+                        if (reading != null && (!reading.response.isDone() || reading.response.isCompletedExceptionally())) {
+                            // its prompt never showed up, so what it printed is nobody's response
+                            outputBuffer.setLength(0);
+                        }
+                        input = next.bytes();
+                        inputAt = 0;
+                        // output before this is the last command's; a callUntil only matches its own
+                        owed = next.framed() == null;
+                        framed = next.framed();
+                        reading = next.framed();
+                    }
+                    int ret = input[inputAt++] & 0xFF;
+                    flushed = false;
                     if (log) {
                         System.out.print((char) ret);
                     }
@@ -144,27 +205,120 @@ public interface IO {
                     System.out.print((char) it);
                 }
                 outputBuffer.append((char) it);
+                Framed f = framed;
+                if (f != null && f.matcher.accept(it) >= 0) {
+                    String response;
+                    synchronized (outputBuffer) {
+                        response = outputBuffer.toString();
+                        outputBuffer.setLength(0);
+                    }
+                    framed = null;
+                    f.response.complete(response);
+                }
             };
         }
+        private void flush() {
+            if (!owed) {
+                // framed by prompts; whatever followed the prompt starts the next response
+                return;
+            }
+            if (!flushed) {
+                flushed = true;
+                flushedAt = System.nanoTime();
+                outputQueue.add(outputBuffer.toString());
+                outputBuffer.setLength(0);
+            }
+        }
+
+        @Override
+        public boolean inputReady() {
+            if (inputAt == input.length && inputQueue.isEmpty()) {
+                flush();
+                return false;
+            }
+            return true;
+        }
+
+        /** Called after each command is queued, e.g. to wake a scheduled VM. */
+        public void onInput(Runnable onInput) {
+            this.onInput = onInput;
+        }
+
         public String call(String command) {
             return call(command, false);
         }
         public String call(String command, boolean log) {
             this.log = log;
+            try (var span = Latency.start("call")) {
+                send(encode(command), null);
+                String response = outputQueue.take();
+                Latency.record("call.handoff", System.nanoTime() - flushedAt);
+                return response;
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Waits for output without sending anything, e.g. the boot banner up to the first prompt.
+         * Fails if the VM doesn't ask for input within timeout.
+         */
+        public String awaitOutput(Duration timeout) {
+            try {
+                String output = outputQueue.poll(timeout.toNanos(), TimeUnit.NANOSECONDS);
+                if (output == null) {
+                    throw new RuntimeException("No output within " + timeout);
+                }
+                return output;
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        /**
+         * Sends a command and completes with the output as soon as it contains one of the prompts
+         * (see PromptMatcher, including PromptMatcher.SEXP), without waiting for the VM to ask for
+         * input. Matching starts when the VM reads the command, so output from earlier commands can't
+         * match; output after the prompt starts the next response. Fails with a TimeoutException if
+         * no prompt shows up in time, and its output is dropped once the VM reads the next command.
+         */
+        public CompletableFuture<String> callUntil(String command, Duration timeout, String... prompts) {
+            Framed f = new Framed(new PromptMatcher(prompts));
+            f.response
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((response, e) -> {
+                    if (framed == f) {
+                        framed = null;
+                    }
+                });
+            send(encode(command), f);
+            return f.response;
+        }
+
+        private static byte[] encode(String command) {
             command = Arrays.stream(command.split("\n"))
                 .map(String::trim)
                 .collect(Collectors.joining("\n"));
 
             var commandPlusEnter = command.endsWith("\n") ? command : command + "\n";
-            for (char c : commandPlusEnter.toCharArray()) {
-                try {
-                    inputQueue.put((int) c);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-            try {
-                return outputQueue.take();
+            return commandPlusEnter.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        private void send(byte[] bytes, Framed framed) {
+            inputQueue.add(new Input(bytes, framed));
+            onInput.run();
+        }
+
+        /**
+         * Like call(String), but bytes go to OP_IN exactly as given, in one chunk: no trimming and no
+         * newline added. For bulk input such as Umodem uploads.
+         */
+        public String call(byte[] bytes) {
+            try (var span = Latency.start("call")) {
+                send(bytes, null);
+                String response = outputQueue.take();
+                Latency.record("call.handoff", System.nanoTime() - flushedAt);
+                return response;
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
@@ -173,7 +327,7 @@ public interface IO {
         boolean exausted = false;
         public void exaust() {
             exausted = true;
-            inputQueue.add((int) '\n');
+            send(new byte[]{'\n'}, null);
         }
 
         @Override
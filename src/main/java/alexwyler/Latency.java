@@ -0,0 +1,176 @@
+package alexwyler;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named latency histograms for the UMIX automation. Every {@link Span} also emits a
+ * {@link LatencyEvent}, so a JFR recording shows the same spans on a timeline.
+ * <p>
+ * Names in use: call (send to response), call.handoff (VM waiting for input to caller having the
+ * response), parse, solve, solve.regression (GoalRegressionPlanner, tried first) and solve.dfs (the
+ * search when that finds nothing), chicago.* for the ChicagoSolver phases, pool.boot / pool.take for
+ * UmixPool and umodem / umodem.compile for Umodem.
+ */
+public final class Latency {
+
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Latency() {
+    }
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    public static Span start(String name) {
+        return new Span(name);
+    }
+
+    public static void reset() {
+        HISTOGRAMS.clear();
+    }
+
+    /** One line per histogram, sorted by name. */
+    public static String report() {
+        StringBuilder sb = new StringBuilder(String.format("%-24s %8s %10s %10s %10s %10s %10s %10s%n",
+            "latency (ms)", "count", "total", "mean", "p50", "p90", "p99", "max"));
+        new TreeMap<>(HISTOGRAMS).forEach((name, h) -> sb.append(String.format(
+            "%-24s %8d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n",
+            name, h.count(), ms(h.total()), ms(h.mean()), ms(h.percentile(50)), ms(h.percentile(90)),
+            ms(h.percentile(99)), ms(h.max()))));
+        return sb.toString();
+    }
+
+    private static double ms(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Log-linear buckets like HdrHistogram's: exact below 32ns, then 16 buckets per power of two
+     * (within 6.25%). Recording is lock-free.
+     */
+    public static final class Histogram {
+        static final int SUB_BUCKETS = 16;
+        static final int BUCKETS = SUB_BUCKETS * 61;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long nanos) {
+            nanos = Math.max(nanos, 0);
+            counts.incrementAndGet(index(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        static int index(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            // keep the top five bits
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 4;
+            return SUB_BUCKETS * shift + (int) (value >>> shift);
+        }
+
+        /** Largest value that lands in bucket index. */
+        static long highestEquivalent(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long m = index - (long) SUB_BUCKETS * shift;
+            return ((m + 1) << shift) - 1;
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public long total() {
+            return total.sum();
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public double mean() {
+            long n = count();
+            return n == 0 ? 0 : (double) total() / n;
+        }
+
+        /** Upper bound of the bucket holding the given percentile, at most max(). */
+        public long percentile(double percentile) {
+            long n = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(highestEquivalent(i), max());
+                }
+            }
+            return max();
+        }
+    }
+
+    /** Times a block: {@code try (var span = Latency.start("parse")) { ... }} */
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final LatencyEvent event = new LatencyEvent();
+
+        private Span(String name) {
+            this.name = name;
+            event.begin();
+        }
+
+        public long elapsedNanos() {
+            return System.nanoTime() - start;
+        }
+
+        @Override
+        public void close() {
+            record(name, elapsedNanos());
+            event.end();
+            if (event.shouldCommit()) {
+                event.name = name;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("alexwyler.Latency")
+    @Label("UMIX Latency")
+    @Category("UMIX")
+    static class LatencyEvent extends Event {
+        @Label("Name")
+        String name;
+    }
+
+}
@@ -5,13 +5,16 @@ import alexwyler.IO.SystemInOut;
 import alexwyler.StackSolver.Item;
 import org.apache.commons.io.IOUtils;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class Main {
 
@@ -49,26 +52,37 @@ public class Main {
         System.out.println("took " + (System.currentTimeMillis() - start) + "ms");
     }
 
-    static void runUmixAdventure() {
-        var asyncIO = new IO.AsyncCallResponseIO();
-        VM vm = new VM(decodeProgram("/umix.um"), List.of(asyncIO, new SystemInOut()));
-        var vmCF = vm.runAsync();
+    static void runUmixAdventure() throws IOException {
+        try (VMScheduler scheduler = new VMScheduler(Runtime.getRuntime().availableProcessors(), 1_000_000, Long.MAX_VALUE);
+             UmixPool pool = new UmixPool(decodeProgram("/umix.um"), 1, new UmixPool.Login("howie", "xyzzy"), scheduler);
+             UmixPool.Session session = pool.take()) {
+            var asyncIO = session.io();
+            System.out.print(session.greeting());
+            playAdventure(asyncIO);
+
+            // play on from the console until it closes or UMIX halts
+            BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+            for (String line; !session.done().isDone() && (line = console.readLine()) != null; ) {
+                String command = line;
+                var response = CompletableFuture.supplyAsync(() -> asyncIO.call(command));
+                CompletableFuture.anyOf(response, session.done()).exceptionally(e -> null).join();
+                if (response.isDone()) {
+                    System.out.print(response.join());
+                }
+            }
+        }
+        System.out.print(Latency.report());
+    }
 
-        asyncIO.call("""
-            howie
-            xyzzy
-        """, true);
+    private static void playAdventure(IO.AsyncCallResponseIO asyncIO) {
         asyncIO.call("""
             adventure
             switch sexp
         """, true);
         {
-            asyncIO.call("""
-                go north
-                """, true);
-            var inventory = SexpToItems.parseStack(asyncIO.call("inventory"))._2;
-            var parsed = SexpToItems.parseStack(asyncIO.call("examine"));
-            var stackSolver = new StackSolver(parsed._2, inventory, new Item("keypad", null, Set.of()));
+            var state = new AdventureState(asyncIO);
+            state.execute("go north", true);
+            var stackSolver = new StackSolver(List.copyOf(state.room()), List.copyOf(state.inventory()), new Item("keypad", null, Set.of()));
             var plans = stackSolver.solve();
             asyncIO.log(plans);
             plans.forEach(plan -> asyncIO.call(plan, true));
@@ -93,11 +107,6 @@ public class Main {
 //            var chicagoItems = SexpToItems.parseStack(chicagoSexp)._2;
 //            System.out.println(chicagoItems);
 //        }
-
-
-        asyncIO.exaust();
-        vmCF.join();
-
     }
 
 
@@ -6,7 +6,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 
 class PlatterArrays {
+    // Allocations of at least this many platters start out sparse
+    static final int SPARSE_THRESHOLD = 1 << 20;
+    // Allocations of at least this many, and below SPARSE_THRESHOLD, start out as bytes. Off unless
+    // um.narrowArrays is set: UMIX, the one big workload, never keeps a large array within 8 bits
+    static final int NARROW_THRESHOLD = Integer.getInteger("um.narrowArrays", Integer.MAX_VALUE);
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    static final int PAGE_MASK = PAGE_SIZE - 1;
+    // Shared by every untouched page, never written
+    private static final int[] ZERO_PAGE = new int[PAGE_SIZE];
+
+    // Each live array is in exactly one of these, null in the others. Arrays whose platters all fit
+    // in 8 or 16 bits, e.g. UMIX text buffers, are bytes or chars until a wider amend promotes them.
     final private ArrayList<int[]> allocated = new ArrayList<>();
+    final private ArrayList<byte[]> bytes = new ArrayList<>();
+    final private ArrayList<char[]> chars = new ArrayList<>();
+    final private ArrayList<Sparse> sparse = new ArrayList<>();
     final private IntStack abandoned = new IntStack();
 
     // Copy-on-write between array 0 and the last-loaded array
@@ -14,34 +30,240 @@ class PlatterArrays {
     // Only copy up to the highest written offset when copyng-on-write
     final private IntArrayList highestWrittenOffset = new IntArrayList();
 
+    private static final int[] ZEROS = new int[4096];
+
+    // Quotas, and what the live arrays hold: a sparse array counts its page table and written pages
+    private final long maxWords;
+    private final int maxArrays;
+    private long liveWords = 0;
+    private int liveArrays = 0;
+
+    PlatterArrays() {
+        this(Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    PlatterArrays(long maxWords, int maxArrays) {
+        this.maxWords = maxWords;
+        this.maxArrays = maxArrays;
+    }
+
+    long liveWords() {
+        return liveWords;
+    }
+
+    int liveArrays() {
+        return liveArrays;
+    }
+
+    /**
+     * Pages of PAGE_SIZE platters; pages that were never written to are ZERO_PAGE and only get their
+     * own memory on the first amend. Lengths and offsets are unsigned, so this also holds arrays of
+     * 2^31 platters and more, which no int[] can.
+     */
+    static final class Sparse {
+        final long length;
+        final int[][] pages;
+        int materialized = 0;
+
+        Sparse(long length) {
+            this.length = length;
+            this.pages = new int[(int) ((length + PAGE_MASK) >>> PAGE_BITS)][];
+            Arrays.fill(pages, ZERO_PAGE);
+        }
+
+        int get(int offset) {
+            return pages[offset >>> PAGE_BITS][offset & PAGE_MASK];
+        }
+
+        /** Whether set(offset, value) would give a page its own memory. */
+        boolean needsPage(int offset, int value) {
+            return value != 0 && pages[offset >>> PAGE_BITS] == ZERO_PAGE;
+        }
+
+        void set(int offset, int value) {
+            int[] page = pages[offset >>> PAGE_BITS];
+            if (page == ZERO_PAGE) {
+                if (value == 0) {
+                    return;
+                }
+                page = pages[offset >>> PAGE_BITS] = new int[PAGE_SIZE];
+                materialized++;
+            }
+            page[offset & PAGE_MASK] = value;
+        }
+
+        long words() {
+            return pages.length + (long) materialized * PAGE_SIZE;
+        }
+
+        int[] toDense() {
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Array of " + length + " platters can't be made dense");
+            }
+            int[] dense = new int[(int) length];
+            for (int p = 0; p < pages.length; p++) {
+                if (pages[p] != ZERO_PAGE) {
+                    int from = p << PAGE_BITS;
+                    System.arraycopy(pages[p], 0, dense, from, Math.min(PAGE_SIZE, dense.length - from));
+                }
+            }
+            return dense;
+        }
+    }
+
+    /** The array as an int[], widening it or turning it dense first if need be. */
     public int[] get(int index) {
-        return allocated.get(index);
+        int[] array = allocated.get(index);
+        if (array == null) {
+            if (bytes.get(index) != null || chars.get(index) != null) {
+                return widen(index);
+            }
+            Sparse pages = sparse.get(index);
+            charge(pages.length - pages.words());
+            array = pages.toDense();
+            allocated.set(index, array);
+            sparse.set(index, null);
+            highestWrittenOffset.set(index, lastNonZero(array));
+        }
+        return array;
+    }
+
+    /** OP_INDEX: reads without widening, or making a sparse array dense. */
+    public int read(int index, int offset) {
+        int[] array = allocated.get(index);
+        if (array != null) {
+            return array[offset];
+        }
+        byte[] narrow = bytes.get(index);
+        if (narrow != null) {
+            return narrow[offset] & 0xFF;
+        }
+        char[] half = chars.get(index);
+        if (half != null) {
+            return half[offset];
+        }
+        return sparse.get(index).get(offset);
     }
 
     public void set(int index, int[] dest) {
-        int largestWriteIndex = -1;
-        for (int i = dest.length - 1; i >= 0; --i) {
-            if (dest[i] != 0) {
-                largestWriteIndex = i;
-                break;
+        charge(dest.length - words(index));
+        highestWrittenOffset.set(index, lastNonZero(dest));
+        allocated.set(index, dest);
+        bytes.set(index, null);
+        chars.set(index, null);
+        sparse.set(index, null);
+    }
+
+    /** Promotes a byte or char array to int[]; the platter count, and so the quota, stays the same. */
+    private int[] widen(int index) {
+        int[] wide;
+        byte[] narrow = bytes.get(index);
+        if (narrow != null) {
+            wide = new int[narrow.length];
+            for (int i = 0; i <= highestWrittenOffset.getInt(index); i++) {
+                wide[i] = narrow[i] & 0xFF;
             }
+            bytes.set(index, null);
+        } else {
+            char[] half = chars.get(index);
+            wide = new int[half.length];
+            for (int i = 0; i <= highestWrittenOffset.getInt(index); i++) {
+                wide[i] = half[i];
+            }
+            chars.set(index, null);
         }
+        allocated.set(index, wide);
+        return wide;
+    }
 
-        highestWrittenOffset.set(index, largestWriteIndex);
-        allocated.set(index, dest);
+    private char[] toChars(int index) {
+        byte[] narrow = bytes.get(index);
+        char[] half = new char[narrow.length];
+        for (int i = 0; i <= highestWrittenOffset.getInt(index); i++) {
+            half[i] = (char) (narrow[i] & 0xFF);
+        }
+        bytes.set(index, null);
+        chars.set(index, half);
+        return half;
+    }
+
+    /**
+     * Index of the last non-zero platter, or -1. Walks back a block at a time; Arrays.mismatch is
+     * vectorized by the JIT, so only the block holding the answer is scanned one platter at a time.
+     */
+    static int lastNonZero(int[] array) {
+        int to = array.length;
+        while (to > 0) {
+            int from = Math.max(0, to - ZEROS.length);
+            if (Arrays.mismatch(array, from, to, ZEROS, 0, to - from) >= 0) {
+                for (int i = to - 1; ; --i) {
+                    if (array[i] != 0) {
+                        return i;
+                    }
+                }
+            }
+            to = from;
+        }
+        return -1;
+    }
+
+    private long words(int index) {
+        int[] array = allocated.get(index);
+        if (array != null) {
+            return array.length;
+        }
+        if (bytes.get(index) != null) {
+            return bytes.get(index).length;
+        }
+        if (chars.get(index) != null) {
+            return chars.get(index).length;
+        }
+        Sparse pages = sparse.get(index);
+        return pages == null ? 0 : pages.words();
     }
 
+    /** Counts words against the quota before they are allocated; negative words gives them back. */
+    private void charge(long words) {
+        if (words > 0 && liveWords + words > maxWords) {
+            throw new VM.QuotaExceededException(VM.QuotaExceededException.Resource.WORDS, maxWords, liveWords, words);
+        }
+        liveWords += words;
+    }
+
+    /** numPlatters is unsigned; 2^31 and up always get a sparse array. */
     public int alloc(int numPlatters) {
-        var array = new int[numPlatters];
+        if (liveArrays >= maxArrays) {
+            throw new VM.QuotaExceededException(VM.QuotaExceededException.Resource.ARRAYS, maxArrays, liveArrays, 1);
+        }
+        int[] array = null;
+        byte[] narrow = null;
+        Sparse pages = null;
+        if (numPlatters >= SPARSE_THRESHOLD || numPlatters < 0) {
+            long length = Integer.toUnsignedLong(numPlatters);
+            charge((length + PAGE_MASK) >>> PAGE_BITS);
+            pages = new Sparse(length);
+        } else if (numPlatters >= NARROW_THRESHOLD) {
+            charge(numPlatters);
+            narrow = new byte[numPlatters];
+        } else {
+            charge(numPlatters);
+            array = new int[numPlatters];
+        }
+        liveArrays++;
         final int index;
         if (!abandoned.isEmpty()) {
             index = abandoned.pop();
             allocated.set(index, array);
+            bytes.set(index, narrow);
+            sparse.set(index, pages);
             highestWrittenOffset.set(index, -1);
 
         } else {
             index = allocated.size();
             allocated.add(array);
+            bytes.add(narrow);
+            chars.add(null);
+            sparse.add(pages);
             highestWrittenOffset.add(-1);
         }
         return index;
@@ -51,12 +273,21 @@ class PlatterArrays {
         if (activeAlias == index) {
             activeAlias = -1;
         }
+        charge(-words(index));
+        liveArrays--;
+        // array 0 keeps its own reference if it was aliased
+        allocated.set(index, null);
+        bytes.set(index, null);
+        chars.set(index, null);
+        sparse.set(index, null);
         abandoned.push(index);
     }
 
     public int[] load(int index) {
-        var program = allocated.get(index);
+        var program = get(index);
         if (index != 0) {
+            // array 0 counts in full even while it shares with index
+            charge(program.length - words(0));
             highestWrittenOffset.set(0, highestWrittenOffset.getInt(index));
             allocated.set(0, program);
             activeAlias = index;
@@ -68,16 +299,65 @@ class PlatterArrays {
         if ((activeAlias == index && activeAlias != 0) || (index == 0 && activeAlias > 0)) {
             int[] curProgram = allocated.getFirst();
             int largestWriteIndexProgram = highestWrittenOffset.getFirst();
-            int[] allocatedCopy = new int[curProgram.length];
-            System.arraycopy(curProgram, 0, allocatedCopy, 0, largestWriteIndexProgram + 1);
+            int[] allocatedCopy;
+            if (largestWriteIndexProgram >= curProgram.length / 2) {
+                // one pass, no zeroing first
+                allocatedCopy = Arrays.copyOf(curProgram, curProgram.length);
+            } else {
+                allocatedCopy = new int[curProgram.length];
+                System.arraycopy(curProgram, 0, allocatedCopy, 0, largestWriteIndexProgram + 1);
+            }
             allocated.set(index, allocatedCopy);
             activeAlias = -1;
         }
 
-        int highestWrittenOffsetTarget = this.highestWrittenOffset.getInt(index);
         int[] target = allocated.get(index);
+        if (target == null) {
+            Sparse pages = sparse.get(index);
+            if (pages != null) {
+                if (pages.needsPage(offset, value)) {
+                    charge(PAGE_SIZE);
+                }
+                // highest offset is found again if it's ever made dense
+                pages.set(offset, value);
+                return;
+            }
+            if (amendNarrow(index, offset, value)) {
+                return;
+            }
+            target = widen(index);
+        }
         target[offset] = value;
-        if (value != 0 && (offset > highestWrittenOffsetTarget)) {
+        noteWrite(index, offset, value);
+    }
+
+    /**
+     * Stores value into a byte or char array if it fits, promoting bytes to chars where that is
+     * enough. False if value needs 32 bits.
+     */
+    private boolean amendNarrow(int index, int offset, int value) {
+        char[] half = chars.get(index);
+        if (half == null) {
+            byte[] narrow = bytes.get(index);
+            if ((value & ~0xFF) == 0) {
+                narrow[offset] = (byte) value;
+                noteWrite(index, offset, value);
+                return true;
+            }
+            if ((value & ~0xFFFF) != 0) {
+                return false;
+            }
+            half = toChars(index);
+        } else if ((value & ~0xFFFF) != 0) {
+            return false;
+        }
+        half[offset] = (char) value;
+        noteWrite(index, offset, value);
+        return true;
+    }
+
+    private void noteWrite(int index, int offset, int value) {
+        if (value != 0 && offset > highestWrittenOffset.getInt(index)) {
             highestWrittenOffset.set(index, offset);
         }
     }
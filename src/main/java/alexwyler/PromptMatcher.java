@@ -0,0 +1,156 @@
+package alexwyler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Streaming multi-pattern matcher over output bytes (Aho-Corasick, compiled to a full DFA).
+ * {@link #accept(int)} is fed one byte at a time and returns the index of the pattern that just
+ * ended, or -1.
+ * <p>
+ * The pattern {@link #SEXP} stands for a whole (success ...) or (failed ...) response: it matches
+ * at the paren that closes it.
+ */
+public class PromptMatcher {
+
+    public static final String SEXP = "(success ...)";
+    private static final String[] SEXP_HEADS = {"(success", "(failed"};
+
+    private final List<String> patterns;
+    private final int sexpIndex;
+    // transitions[state * 256 + byte]
+    private final int[] transitions;
+    // pattern ending at each state, -1 if none; -2 for the start of an S-expression
+    private final int[] output;
+
+    private int state = 0;
+    // > 0 while inside an S-expression
+    private int depth = 0;
+    private boolean inString = false;
+    private boolean escaped = false;
+
+    public PromptMatcher(List<String> patterns) {
+        this.patterns = List.copyOf(patterns);
+        this.sexpIndex = this.patterns.indexOf(SEXP);
+
+        List<String> words = new ArrayList<>();
+        List<Integer> results = new ArrayList<>();
+        for (int i = 0; i < this.patterns.size(); i++) {
+            if (i == sexpIndex) {
+                for (String head : SEXP_HEADS) {
+                    words.add(head);
+                    results.add(-2);
+                }
+            } else if (!this.patterns.get(i).isEmpty()) {
+                words.add(this.patterns.get(i));
+                results.add(i);
+            }
+        }
+
+        // trie
+        int maxStates = 1 + words.stream().mapToInt(String::length).sum();
+        int[] trie = new int[maxStates * 256];
+        Arrays.fill(trie, -1);
+        int[] out = new int[maxStates];
+        Arrays.fill(out, -1);
+        int states = 1;
+        for (int w = 0; w < words.size(); w++) {
+            int s = 0;
+            for (char c : words.get(w).toCharArray()) {
+                int slot = s * 256 + (c & 0xFF);
+                if (trie[slot] < 0) {
+                    trie[slot] = states++;
+                }
+                s = trie[slot];
+            }
+            if (out[s] == -1) {
+                out[s] = results.get(w);
+            }
+        }
+
+        // failure links, breadth first, folded into the transition table
+        int[] fail = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < 256; c++) {
+            if (trie[c] < 0) {
+                trie[c] = 0;
+            } else {
+                fail[trie[c]] = 0;
+                queue.add(trie[c]);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            if (out[s] == -1) {
+                out[s] = out[fail[s]];
+            }
+            for (int c = 0; c < 256; c++) {
+                int slot = s * 256 + c;
+                if (trie[slot] < 0) {
+                    trie[slot] = trie[fail[s] * 256 + c];
+                } else {
+                    fail[trie[slot]] = trie[fail[s] * 256 + c];
+                    queue.add(trie[slot]);
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(trie, states * 256);
+        this.output = Arrays.copyOf(out, states);
+    }
+
+    public PromptMatcher(String... patterns) {
+        this(List.of(patterns));
+    }
+
+    public String pattern(int index) {
+        return patterns.get(index);
+    }
+
+    public void reset() {
+        state = 0;
+        depth = 0;
+        inString = false;
+        escaped = false;
+    }
+
+    public int accept(int b) {
+        if (depth > 0) {
+            return balance(b);
+        }
+        state = transitions[state * 256 + (b & 0xFF)];
+        int match = output[state];
+        if (match == -2) {
+            // the head's own paren
+            depth = 1;
+            state = 0;
+            return -1;
+        }
+        return match;
+    }
+
+    private int balance(int b) {
+        if (inString) {
+            if (escaped) {
+                escaped = false;
+            } else if (b == '\\') {
+                escaped = true;
+            } else if (b == '"') {
+                inString = false;
+            }
+            return -1;
+        }
+        if (b == '"') {
+            inString = true;
+        } else if (b == '(') {
+            depth++;
+        } else if (b == ')' && --depth == 0) {
+            return sexpIndex;
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,147 @@
+package alexwyler;
+
+import alexwyler.StackSolver.Item;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rooms, exits and item stacks, explored once. Walks between rooms are shortest paths over the
+ * recorded exits, cached per starting room.
+ */
+public class RoomMap {
+
+    static final List<String> DIRECTIONS = List.of("north", "south", "east", "west");
+
+    static String opposite(String direction) {
+        return switch (direction) {
+            case "north" -> "south";
+            case "south" -> "north";
+            case "east" -> "west";
+            case "west" -> "east";
+            default -> throw new IllegalArgumentException("Unknown direction " + direction);
+        };
+    }
+
+    static final class Room {
+        final String name;
+        final Map<String, String> exits = new LinkedHashMap<>();
+        List<Item> items = List.of();
+
+        Room(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + exits + " " + items;
+        }
+    }
+
+    private final Map<String, Room> rooms = new LinkedHashMap<>();
+    // from -> (to -> directions)
+    private final Map<String, Map<String, List<String>>> paths = new HashMap<>();
+
+    /** Visits every room reachable from the current one and comes back to it. */
+    public static RoomMap explore(AdventureState state) {
+        RoomMap map = new RoomMap();
+        map.explore(state, state.roomName());
+        return map;
+    }
+
+    private void explore(AdventureState state, String here) {
+        Room room = new Room(here);
+        room.items = List.copyOf(state.room());
+        rooms.put(here, room);
+        for (String direction : DIRECTIONS) {
+            if (!state.execute("go " + direction)) {
+                continue;
+            }
+            String there = state.roomName();
+            room.exits.put(direction, there);
+            if (!rooms.containsKey(there)) {
+                explore(state, there);
+            }
+            if (!state.execute("go " + opposite(direction)) || !here.equals(state.roomName())) {
+                throw new IllegalStateException("Could not get back to " + here + " from " + there);
+            }
+        }
+    }
+
+    public Room room(String name) {
+        return rooms.get(name);
+    }
+
+    public Iterable<Room> rooms() {
+        return rooms.values();
+    }
+
+    public void updateItems(String roomName, List<Item> items) {
+        Room room = rooms.get(roomName);
+        if (room != null) {
+            room.items = List.copyOf(items);
+        }
+    }
+
+    /** Directions from one room to another, or null if it can't be reached. */
+    public List<String> path(String from, String to) {
+        return paths.computeIfAbsent(from, this::shortestPaths).get(to);
+    }
+
+    private Map<String, List<String>> shortestPaths(String from) {
+        Map<String, List<String>> result = new HashMap<>();
+        result.put(from, List.of());
+        Deque<String> queue = new ArrayDeque<>();
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            String cur = queue.poll();
+            List<String> curPath = result.get(cur);
+            for (var exit : rooms.get(cur).exits.entrySet()) {
+                if (result.containsKey(exit.getValue())) {
+                    continue;
+                }
+                List<String> next = new ArrayList<>(curPath);
+                next.add(exit.getKey());
+                result.put(exit.getValue(), Collections.unmodifiableList(next));
+                queue.add(exit.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Whether digging found out can leave part in the inventory: combining only ever takes entries
+     * out of missing, and a part without an adjective, as the game's missing kinds always are, takes
+     * any.
+     */
+    static boolean yields(Item found, Item part) {
+        return found.name().equals(part.name())
+            && (part.adjective() == null || part.adjective().equals(found.adjective()))
+            && found.missing().containsAll(part.missing());
+    }
+
+    /** The closest room holding an item that yields part, leaving out the rooms in except, or null. */
+    public Room nearestWith(String from, Item part, Set<String> except) {
+        Room best = null;
+        int bestLength = Integer.MAX_VALUE;
+        for (Room room : rooms.values()) {
+            List<String> path = path(from, room.name);
+            if (path == null || path.size() >= bestLength || except.contains(room.name)) {
+                continue;
+            }
+            if (room.items.stream().anyMatch(it -> yields(it, part))) {
+                best = room;
+                bestLength = path.size();
+            }
+        }
+        return best;
+    }
+
+}
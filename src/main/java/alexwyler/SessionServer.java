@@ -0,0 +1,350 @@
+package alexwyler;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Serves UM sessions over a local TCP or Unix-domain socket. One selector thread does all the socket
+ * IO; every connection gets its own VM, run on a VMScheduler, whose OP_IN / OP_OUT read and write
+ * the connection's buffers.
+ */
+public class SessionServer implements Runnable, AutoCloseable {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int[] image;
+    private final VMScheduler scheduler;
+    // per session, see VM.QuotaExceededException
+    private final long maxWords;
+    private final int maxArrays;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    // connections the VM side wants the selector to look at again
+    private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean closed = false;
+
+    public SessionServer(SocketAddress address, int[] image, VMScheduler scheduler) throws IOException {
+        this(address, image, scheduler, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    public SessionServer(SocketAddress address, int[] image, VMScheduler scheduler, long maxWords, int maxArrays)
+        throws IOException {
+        this.image = image;
+        this.scheduler = scheduler;
+        this.maxWords = maxWords;
+        this.maxArrays = maxArrays;
+        this.selector = Selector.open();
+        this.server = address instanceof UnixDomainSocketAddress
+            ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+            : ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    public SocketAddress localAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!closed) {
+                selector.select();
+                Connection c;
+                while ((c = pending.poll()) != null) {
+                    c.updateInterest();
+                }
+                var it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection conn = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            conn.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            conn.write();
+                        }
+                    } catch (IOException e) {
+                        conn.close();
+                    }
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            if (!closed) {
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        Connection conn = new Connection(channel);
+        conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+        conn.session = scheduler.submit(new VM(image.clone(), List.of(conn), maxWords, maxArrays));
+        conn.session.done().whenComplete((ok, e) -> conn.halted());
+    }
+
+    @Override
+    public void close() throws IOException {
+        SocketAddress address = server.getLocalAddress();
+        closed = true;
+        selector.wakeup();
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection conn) {
+                // kills the session too, or it would stay parked waiting for input
+                conn.close();
+            } else {
+                key.channel().close();
+            }
+        }
+        selector.close();
+        if (address instanceof UnixDomainSocketAddress unix) {
+            Files.deleteIfExists(unix.getPath());
+        }
+    }
+
+    /**
+     * One client. The VM reads and writes vmIn / vmOut without locking; their bytes move to and from the
+     * shared inbound / outbound in bulk under the connection's lock, at most once per slice unless a
+     * buffer runs full. inbound is kept flipped for reading, outbound for writing. outbound never
+     * grows: while it is full the VM is parked with OUTPUT_READY until write() drains it.
+     */
+    final class Connection implements IO {
+        final SocketChannel channel;
+        SelectionKey key;
+        VMScheduler.Session session;
+
+        private final ByteBuffer inbound = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final ByteBuffer outbound = ByteBuffer.allocate(BUFFER_SIZE);
+        private boolean inputClosed = false;
+        private boolean vmHalted = false;
+        private boolean queued = false;
+        // the VM is parked until outbound has room again
+        private boolean outputBlocked = false;
+
+        // VM side only
+        private final ByteBuffer vmIn = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final ByteBuffer vmOut = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private final IntSupplier in = this::nextByte;
+        private final IntConsumer out = this::putByte;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        // ---- VM side ----
+
+        private int nextByte() {
+            // only asked when inputReady() said so, i.e. at end of input
+            return vmIn.hasRemaining() ? vmIn.get() & 0xFF : -1;
+        }
+
+        private void putByte(int b) {
+            // outputReady() made room
+            vmOut.put((byte) b);
+        }
+
+        @Override
+        public IntSupplier getIn() {
+            return in;
+        }
+
+        @Override
+        public IntConsumer getOut() {
+            return out;
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean inputReady() {
+            if (vmIn.hasRemaining()) {
+                return true;
+            }
+            synchronized (this) {
+                if (inbound.remaining() == inbound.capacity()) {
+                    // the selector stopped reading while it was full
+                    requestSelector();
+                }
+                vmIn.clear();
+                vmIn.put(inbound);
+                vmIn.flip();
+                if (vmIn.hasRemaining() || inputClosed) {
+                    return true;
+                }
+                // about to wait: push out whatever the prompt was
+                handOver();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean outputReady() {
+            if (vmOut.hasRemaining()) {
+                return false;
+            }
+            synchronized (this) {
+                handOver();
+                outputBlocked = !vmOut.hasRemaining();
+                return outputBlocked;
+            }
+        }
+
+        @Override
+        public void sliceEnded() {
+            if (vmOut.position() > 0) {
+                synchronized (this) {
+                    handOver();
+                }
+            }
+        }
+
+        /** Moves as much of vmOut into outbound as fits. */
+        private void handOver() {
+            int n = Math.min(vmOut.position(), outbound.remaining());
+            if (n == 0) {
+                return;
+            }
+            vmOut.flip();
+            outbound.put(vmOut.slice(0, n));
+            vmOut.position(n).compact();
+            requestSelector();
+        }
+
+        synchronized void halted() {
+            vmHalted = true;
+            requestSelector();
+        }
+
+        private void requestSelector() {
+            if (!queued) {
+                queued = true;
+                pending.add(this);
+                selector.wakeup();
+            }
+        }
+
+        // ---- selector side ----
+
+        synchronized void updateInterest() {
+            queued = false;
+            if (!key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!inputClosed && inbound.remaining() < inbound.capacity()) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (outbound.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            } else if (vmHalted && vmOut.position() == 0) {
+                close();
+                return;
+            }
+            key.interestOps(ops);
+        }
+
+        void read() throws IOException {
+            int n;
+            synchronized (this) {
+                inbound.compact();
+                n = channel.read(inbound);
+                inbound.flip();
+                if (n < 0) {
+                    inputClosed = true;
+                }
+                updateInterest();
+            }
+            if (n != 0) {
+                session.wake();
+            }
+        }
+
+        void write() throws IOException {
+            boolean unblocked;
+            synchronized (this) {
+                outbound.flip();
+                channel.write(outbound);
+                outbound.compact();
+                if (vmHalted) {
+                    // what didn't fit when the VM stopped
+                    handOver();
+                }
+                unblocked = outputBlocked && outbound.hasRemaining();
+                if (unblocked) {
+                    outputBlocked = false;
+                }
+                updateInterest();
+            }
+            if (unblocked) {
+                session.wake();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+            session.kill(new IllegalStateException("Connection closed"));
+        }
+    }
+
+    /** Usage: SessionServer image-resource [port | unix:path] [max platter words per session] */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            throw new IllegalArgumentException(
+                "Usage: SessionServer image-resource [port | unix:path] [max platter words per session]");
+        }
+        String image = args[0];
+        String where = args.length > 1 ? args[1] : "7777";
+        SocketAddress address = where.startsWith("unix:")
+            ? UnixDomainSocketAddress.of(Path.of(where.substring("unix:".length())))
+            : new InetSocketAddress("127.0.0.1", Integer.parseInt(where));
+        long maxWords = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+        VMScheduler scheduler = new VMScheduler(Runtime.getRuntime().availableProcessors(), 1_000_000, Long.MAX_VALUE);
+        try (SessionServer server = new SessionServer(address, Main.decodeProgram(image), scheduler, maxWords, Integer.MAX_VALUE)) {
+            System.out.println("Serving " + image + " on " + server.localAddress());
+            server.run();
+        }
+    }
+
+}
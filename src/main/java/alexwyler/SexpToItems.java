@@ -1,182 +1,301 @@
 package alexwyler;
 
 import alexwyler.StackSolver.Item;
-import io.vavr.Tuple2;
 import io.vavr.Tuple3;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import static alexwyler.SexpToItems.SexpReader.ATOM;
+import static alexwyler.SexpToItems.SexpReader.CLOSE;
+import static alexwyler.SexpToItems.SexpReader.END;
+import static alexwyler.SexpToItems.SexpReader.OPEN;
+
 // Courtesy of ChatGPT
 public final class SexpToItems {
 
-    public static Tuple3<Boolean, List<Item>, String> parseStack(String s) {
-        Object root = new P(s).any();
-
-        // check if it's a failure
-        if (headIs(root, "failed")) {
-            return new Tuple3<>(false, null, null);
+    public static Tuple3<Boolean, List<Item>, String> parseStack(CharSequence s) {
+        try (var span = Latency.start("parse")) {
+            return parse(s);
         }
+    }
 
-        // find the command node
-        List<?> cmd = find(root, "command");
-        if (cmd == null) {
+    private static Tuple3<Boolean, List<Item>, String> parse(CharSequence s) {
+        SexpReader r = new SexpReader(s);
+        if (r.next() != OPEN) {
             throw new IllegalArgumentException("no (command ...)");
         }
+        int ev = r.next();
 
-        // collect all items anywhere under command
-        List<StackSolver.Item> out = new ArrayList<>();
-        collectItems(cmd, out);
-
-        String roomName = null;
+        // check if it's a failure
+        if (ev == ATOM && r.is("failed")) {
+            return new Tuple3<>(false, null, null);
+        }
 
-        List<?> look = find(cmd, "look");
-        if (look != null) {
-            List<?> room = find(look, "room");
-            if (room != null) {
-                List<?> nameField = field(room, "name");
-                roomName = nameField != null ? str(nameField, 1) : null;
-            }
+        StackParser p = new StackParser(r);
+        if (ev == ATOM && r.is("command")) {
+            p.openCommand();
+        } else {
+            p.push(C_SCAN, null);
+        }
+        while (ev != END && !p.done) {
+            ev = p.accept(ev);
+        }
+        while (!p.done && p.size > 0) {
+            p.close();
         }
 
-        return new Tuple3<>(true, out, roomName);
+        if (!p.sawCommand) {
+            throw new IllegalArgumentException("no (command ...)");
+        }
+        return new Tuple3<>(true, p.out, p.roomName);
     }
 
+    // What a list means, decided by its head atom and the list it sits in
+    private static final int C_SCAN = 0;      // looking for (command ...)
+    private static final int C_COMMAND = 1;   // collecting (item ...) anywhere
+    private static final int C_LOOK = 2;      // look or go: as C_COMMAND, plus the first (room ...)
+    private static final int C_ROOM = 3;      // as C_COMMAND, plus the room's own (name ...)
+    private static final int C_ITEM = 4;      // (item ...) being built
+    private static final int C_KIND = 5;      // (kind ...) being built
+    private static final int C_VALUE = 6;     // (name "x") or (adjective "x"), keeps element 1
+    private static final int C_ADJECTIVES = 7;
+    private static final int C_CONDITION = 8; // (condition <state>)
+    private static final int C_BROKEN = 9;    // (broken (condition <state>) (missing ...))
+    private static final int C_MISSING = 10;  // collecting (kind ...) anywhere
+    private static final int C_PILED_ON = 11; // collecting (item ...) of the pile
+    private static final int C_SKIP = 12;
+
+    private static final int V_NAME = 0;
+    private static final int V_ADJECTIVE = 1;
+    private static final int V_ROOM_NAME = 2;
+
+    /**
+     * Builds items straight from reader events. Every open list gets a frame on an explicit stack,
+     * so nothing is materialised beyond names and adjectives, and deep piled_on chains don't recurse.
+     */
+    private static final class StackParser {
+
+        final SexpReader r;
+        final List<Item> out = new ArrayList<>();
+        String roomName = null;
+        boolean sawCommand = false;
+        boolean sawRoom = false;
+        boolean done = false;
+        int commandAt = -1;
 
+        Frame[] frames = new Frame[64];
+        int size = 0;
 
-    private static void collectItems(Object node, List<StackSolver.Item> out) {
-        if (headIs(node, "item")) {
-            flatten((List<?>) node, out);
-            return;
+        StackParser(SexpReader r) {
+            this.r = r;
         }
-        if (node instanceof List<?> l) {
-            for (Object c : l) {
-                collectItems(c, out);
+
+        int accept(int ev) {
+            switch (ev) {
+                case OPEN -> {
+                    int head = r.next();
+                    if (head == ATOM) {
+                        open();
+                        return r.next();
+                    }
+                    // headless list, e.g. the ((item ...) ) cons cells
+                    Frame top = top();
+                    switch (top.ctx) {
+                        case C_SCAN, C_COMMAND, C_LOOK, C_MISSING, C_PILED_ON, C_ADJECTIVES -> push(top.ctx, top.owner);
+                        case C_ROOM -> push(C_COMMAND, null);
+                        default -> push(C_SKIP, null);
+                    }
+                    return head;
+                }
+                case CLOSE -> close();
+                case END -> {
+                }
+                default -> {
+                    Frame top = top();
+                    if (++top.elements == 1 && top.ctx == C_VALUE) {
+                        top.value = r.text();
+                    }
+                }
             }
+            return r.next();
         }
-    }
 
-    private static void flatten(List<?> item, List<StackSolver.Item> out) {
-        out.add(toItem(item));
-        List<?> po = field(item, "piled_on");
-        if (po != null && ((List<?>) po).size() > 1) {
-            for (Object o : list(((List<?>) po).get(1))) {
-                if (headIs(o, "item")) {
-                    flatten((List<?>) o, out);
+        private void open() {
+            Frame top = top();
+            Frame owner = top.owner;
+            switch (top.ctx) {
+                case C_SCAN -> {
+                    if (!sawCommand && r.is("command")) {
+                        openCommand();
+                    } else {
+                        push(C_SCAN, null);
+                    }
+                }
+                case C_COMMAND, C_LOOK, C_ROOM -> {
+                    if (r.is("item")) {
+                        pushBuilder(C_ITEM, null);
+                    } else if (top.ctx == C_COMMAND && (r.is("look") || r.is("go"))) {
+                        push(C_LOOK, null);
+                    } else if (top.ctx == C_LOOK && !sawRoom && r.is("room")) {
+                        sawRoom = true;
+                        push(C_ROOM, null);
+                    } else if (top.ctx == C_ROOM && r.is("name")) {
+                        pushValue(V_ROOM_NAME, null);
+                    } else {
+                        push(top.ctx == C_ROOM ? C_LOOK : top.ctx, null);
+                    }
+                }
+                case C_ITEM, C_KIND -> {
+                    if (r.is("name")) {
+                        pushValue(V_NAME, top);
+                    } else if (r.is("adjectives")) {
+                        push(C_ADJECTIVES, top);
+                    } else if (r.is("condition")) {
+                        push(C_CONDITION, top);
+                    } else if (top.ctx == C_ITEM && r.is("piled_on")) {
+                        push(C_PILED_ON, null);
+                    } else {
+                        r.skipList();
+                    }
+                }
+                case C_ADJECTIVES -> {
+                    if (r.is("adjective")) {
+                        pushValue(V_ADJECTIVE, owner);
+                    } else {
+                        r.skipList();
+                    }
+                }
+                case C_CONDITION -> {
+                    if (top.elements++ == 0 && r.is("broken")) {
+                        push(C_BROKEN, owner);
+                    } else {
+                        r.skipList();
+                    }
+                }
+                case C_BROKEN -> {
+                    if (r.is("condition")) {
+                        push(C_CONDITION, owner);
+                    } else if (r.is("missing")) {
+                        push(C_MISSING, owner);
+                    } else {
+                        r.skipList();
+                    }
                 }
+                case C_MISSING -> {
+                    if (r.is("kind")) {
+                        pushBuilder(C_KIND, owner);
+                    } else {
+                        push(C_MISSING, owner);
+                    }
+                }
+                case C_PILED_ON -> {
+                    if (r.is("item")) {
+                        pushBuilder(C_ITEM, null);
+                    } else {
+                        r.skipList();
+                    }
+                }
+                default -> r.skipList();
             }
         }
-    }
 
-    private static StackSolver.Item toItem(List<?> it) {
-        String name = str(field(it, "name"), 1);
-        String adj = firstAdj(field(it, "adjectives"));
-        Set<Item> miss = missing(field(it, "condition"));
-        return new StackSolver.Item(name, adj, miss);
-    }
-
-    private static String firstAdj(Object adjs) {
-        if (!(adjs instanceof List<?> l) || l.size() < 2) {
-            return null;
-        }
-        for (Object o : list(l.get(1))) {
-            if (headIs(o, "adjective")) {
-                return str((List<?>) o, 1);
+        void close() {
+            Frame f = frames[--size];
+            switch (f.ctx) {
+                case C_VALUE -> {
+                    if (f.valueKind == V_ROOM_NAME) {
+                        if (roomName == null) {
+                            roomName = f.value;
+                        }
+                    } else if (f.valueKind == V_NAME) {
+                        if (f.owner.name == null) {
+                            f.owner.name = f.value;
+                        }
+                    } else if (f.owner.adjective == null) {
+                        f.owner.adjective = f.value;
+                    }
+                }
+                case C_ITEM -> out.set(f.slot, f.build());
+                case C_KIND -> f.parent.addMissing(f.build());
+                case C_COMMAND -> done = size == commandAt;
+                default -> {
+                }
             }
         }
-        return null;
-    }
 
-    private static Set<StackSolver.Item> missing(Object cond) {
-        if (!(cond instanceof List<?> l) || l.size() < 2) {
-            return Set.of();
+        void openCommand() {
+            sawCommand = true;
+            commandAt = size;
+            push(C_COMMAND, null);
         }
-        return fromState(l.get(1));
-    }
 
-    private static Set<StackSolver.Item> fromState(Object st) {
-        if (!(st instanceof List<?> s) || s.isEmpty()) {
-            return Set.of();
-        }
-//        if ("pristine".equals(s.get(0))) {
-//            return Set.of();
-//        }
-        if (!"broken".equals(s.get(0))) {
-            return Set.of();
+        Frame top() {
+            return frames[size - 1];
         }
 
-        Set<StackSolver.Item> out = new HashSet<>();
-        // direct (missing ((kind ...)...))
-        for (Object ch : s) {
-            if (headIs(ch, "missing") && ((List<?>) ch).size() >= 2) {
-                collectKinds(((List<?>) ch).get(1), out);
+        Frame push(int ctx, Frame owner) {
+            if (size == frames.length) {
+                frames = Arrays.copyOf(frames, size * 2);
             }
+            Frame f = frames[size];
+            if (f == null) {
+                f = frames[size] = new Frame();
+            }
+            size++;
+            f.ctx = ctx;
+            f.owner = owner;
+            f.parent = null;
+            f.elements = 0;
+            f.value = null;
+            f.name = null;
+            f.adjective = null;
+            f.missing = null;
+            return f;
         }
 
-        // nested (condition <state>)
-        for (Object ch : s) {
-            if (headIs(ch, "condition") && ((List<?>) ch).size() >= 2) {
-                out.addAll(fromState(((List<?>) ch).get(1)));
+        void pushBuilder(int ctx, Frame parent) {
+            Frame f = push(ctx, null);
+            f.owner = f;
+            f.parent = parent;
+            if (ctx == C_ITEM) {
+                // reserve the slot now so the pile keeps top-down order
+                f.slot = out.size();
+                out.add(null);
             }
         }
-        return out;
-    }
 
-    private static void collectKinds(Object node, Set<StackSolver.Item> out) {
-        if (headIs(node, "kind")) {
-            out.add(kind((List<?>) node));
-            return;
-        }
-        if (node instanceof List<?> l) {
-            for (Object c : l) {
-                collectKinds(c, out);
-            }
+        void pushValue(int valueKind, Frame owner) {
+            push(C_VALUE, owner).valueKind = valueKind;
         }
-    }
 
-    private static StackSolver.Item kind(List<?> k) {
-        String name = str(field(k, "name"), 1);
-        String adj = firstAdj(field(k, "adjectives"));
-        Set<StackSolver.Item> miss = missing(field(k, "condition"));
-        return new StackSolver.Item(name, adj, miss);
     }
 
-    // ------- tiny S-expr helpers -------
-    private static List<?> field(List<?> l, String key) {
-        for (Object o : l) {
-            if (headIs(o, key)) {
-                return (List<?>) o;
+    private static final class Frame {
+        int ctx;
+        Frame owner;
+        Frame parent;
+        int elements;
+        int valueKind;
+        String value;
+        String name;
+        String adjective;
+        Set<Item> missing;
+        int slot;
+
+        void addMissing(Item item) {
+            if (missing == null) {
+                missing = new HashSet<>();
             }
+            missing.add(item);
         }
-        return null;
-    }
 
-    private static boolean headIs(Object o, String h) {
-        return (o instanceof List<?> l) && !l.isEmpty() && h.equals(l.get(0));
-    }
-
-    private static String str(List<?> l, int i) {
-        Object v = l.size() > i ? l.get(i) : null;
-        return v == null ? null : String.valueOf(v);
-    }
-
-    private static List<?> list(Object o) {return (o instanceof List) ? (List<?>) o : List.of();}
-
-    private static List<?> find(Object n, String key) {
-        if (headIs(n, key)) {
-            return (List<?>) n;
-        }
-        if (n instanceof List<?> l) {
-            for (Object c : l) {
-                List<?> r = find(c, key);
-                if (r != null) {
-                    return r;
-                }
-            }
+        Item build() {
+            return new Item(name, adjective, missing == null ? Set.of() : missing);
         }
-        return null;
     }
 
     public static void main(String[] args) {
@@ -190,64 +309,119 @@ public final class SexpToItems {
         }
     }
 
-    // ------- minimal S-expr parser -------
-    static final class P {
+    // ------- minimal S-expr pull parser -------
+
+    /**
+     * Tokenizer over the raw response. {@link #next()} returns one event at a time; atoms and strings
+     * stay as offsets into the input until {@link #text()} is asked for.
+     */
+    static final class SexpReader {
 
-        final String s;
+        static final int END = 0;
+        static final int OPEN = 1;
+        static final int CLOSE = 2;
+        static final int ATOM = 3;
+        static final int STRING = 4;
+
+        final CharSequence s;
         int i = 0;
+        // bounds of the current atom or string body
+        int start;
+        int end;
+        boolean escaped;
 
-        P(String s) {
+        SexpReader(CharSequence s) {
             this.s = s;
         }
 
-        Object any() {
+        int next() {
             skip();
             if (i >= s.length()) {
-                return List.of();
+                return END;
             }
             char c = s.charAt(i);
             if (c == '(') {
-                return list();
+                i++;
+                return OPEN;
+            }
+            if (c == ')') {
+                i++;
+                return CLOSE;
             }
             if (c == '"') {
-                return str();
+                str();
+                return STRING;
             }
-            return atom();
+            atom();
+            return ATOM;
         }
 
-        List<Object> list() {
-            i++;
-            List<Object> out = new ArrayList<>();
-            skip();
-            while (i < s.length() && s.charAt(i) != ')') {
-                out.add(any());
-                skip();
+        /** Skips to the end of the current list; its head has already been read. */
+        void skipList() {
+            int depth = 1;
+            while (depth > 0) {
+                switch (next()) {
+                    case OPEN -> depth++;
+                    case CLOSE -> depth--;
+                    case END -> depth = 0;
+                    default -> {
+                    }
+                }
             }
-            i++;
-            return out;
         }
 
-        String str() {
+        boolean is(String h) {
+            int n = end - start;
+            if (escaped || n != h.length()) {
+                return false;
+            }
+            for (int k = 0; k < n; k++) {
+                if (s.charAt(start + k) != h.charAt(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String text() {
+            if (!escaped) {
+                return s.subSequence(start, end).toString();
+            }
+            StringBuilder b = new StringBuilder(end - start);
+            for (int k = start; k < end; k++) {
+                char c = s.charAt(k);
+                if (c == '\\' && k + 1 < end) {
+                    char n = s.charAt(++k);
+                    b.append(n == 'n' ? '\n' : n == 't' ? '\t' : n == 'r' ? '\r' : n);
+                } else {
+                    b.append(c);
+                }
+            }
+            return b.toString();
+        }
+
+        private void str() {
             i++;
-            StringBuilder b = new StringBuilder();
+            start = i;
+            escaped = false;
             while (i < s.length()) {
-                char c = s.charAt(i++);
+                char c = s.charAt(i);
                 if (c == '\\') {
-                    if (i < s.length()) {
-                        char n = s.charAt(i++);
-                        b.append(n == 'n' ? '\n' : n == 't' ? '\t' : n == 'r' ? '\r' : n == '"' ? '"' : n == '\\' ? '\\' : n);
-                    }
+                    escaped = true;
+                    i += 2;
                 } else if (c == '"') {
                     break;
                 } else {
-                    b.append(c);
+                    i++;
                 }
             }
-            return b.toString();
+            end = Math.min(i, s.length());
+            i = end + 1;
         }
 
-        String atom() {
-            int j = i;
+        private void atom() {
+            start = i;
+            escaped = false;
             while (i < s.length()) {
                 char c = s.charAt(i);
                 if (Character.isWhitespace(c) || c == '(' || c == ')') {
@@ -255,10 +429,10 @@ public final class SexpToItems {
                 }
                 i++;
             }
-            return s.substring(j, i);
+            end = i;
         }
 
-        void skip() {
+        private void skip() {
             while (i < s.length()) {
                 char c = s.charAt(i);
                 if (Character.isWhitespace(c)) {
@@ -277,4 +451,4 @@ public final class SexpToItems {
 
     }
 
-}
\ No newline at end of file
+}
@@ -2,7 +2,9 @@ package alexwyler;
 
 import io.vavr.Tuple2;
 
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -31,10 +33,255 @@ public class StackSolver {
     final Item targetItem;
 
     public StackSolver(final List<Item> initialStack, List<Item> inventory, final Item targetItem) {
+        this(initialStack, inventory, targetItem, VISITED_BYTES);
+    }
+
+    /** visitedBytes caps the memory remembering explored states; past it, the deepest are forgotten. */
+    public StackSolver(final List<Item> initialStack, List<Item> inventory, final Item targetItem, long visitedBytes) {
         this.stack = initialStack;
         this.targetItem = targetItem;
         this.inventory = inventory;
+        this.visitedBytes = visitedBytes;
         neededItems = computeNeededIems(targetItem);
+        visited = new FingerprintTable(visitedBytes / 4 * 3);
+        dead = new FingerprintTable(visitedBytes / 4);
+    }
+
+    // ---- pruned search ----
+
+    // failed states checked for dominance, per later stack index
+    static final int DOMINANCE_WINDOW = 8;
+    private static final long OP_COMBINE = 1L << 62;
+    private static final long OP_INCINERATE = 2L << 60;
+
+    // interchangeable items share the id of their class, everything else has its own
+    private final Map<Object, Integer> classIds = new HashMap<>();
+    private final Map<Item, Integer> ids = new HashMap<>();
+    static final long VISITED_BYTES = 64L << 20;
+    // plan length each state was last explored at, by fingerprint
+    private final FingerprintTable visited;
+    // states no plan leads on from, kept across solves so resume() can skip them
+    private final FingerprintTable dead;
+    private final long visitedBytes;
+    private final List<ArrayDeque<int[]>> failed = new ArrayList<>();
+    private boolean useDominance = true;
+    // only plans shorter than this count, cleanup included
+    private int planLimit = Integer.MAX_VALUE;
+
+    // per-search bookkeeping, see beginSearch
+    private long startNanos;
+    private long budgetNanos = Long.MAX_VALUE;
+    private volatile boolean cancelled = false;
+    private boolean stopped = false;
+    private long statesVisited = 0;
+    private int deepestIndex = 0;
+
+    /**
+     * A state up to interchangeable items, and the last step if it was a combine or incinerate.
+     * ids is sorted.
+     */
+    private static long fingerprint(int idx, int[] ids, long lastOp) {
+        long h = FingerprintTable.mix(idx * 0x9E3779B97F4A7C15L ^ lastOp);
+        for (int id : ids) {
+            h = FingerprintTable.mix(h ^ (id + 1) * 0x9E3779B97F4A7C15L);
+        }
+        return h;
+    }
+
+    /**
+     * Items the target doesn't care about individually: anything but the target itself, items we
+     * started with (never incinerated) and needed items. Two of these with the same shape minus
+     * adjectives combine and burn the same way, so only one of them is ever tried.
+     */
+    private boolean interchangeable(Item x) {
+        return !x.name().equals(targetItem.name()) && !inventory.contains(x) && !neededItems.contains(x);
+    }
+
+    private int id(Item x) {
+        Integer id = ids.get(x);
+        if (id == null) {
+            Object key = interchangeable(x) ? x.sansAdjectiveKey() : x;
+            id = classIds.computeIfAbsent(key, k -> classIds.size());
+            ids.put(x, id);
+        }
+        return id;
+    }
+
+    private int[] key(List<Item> inv) {
+        int[] key = new int[inv.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = id(inv.get(i));
+        }
+        Arrays.sort(key);
+        return key;
+    }
+
+    private static boolean firstOfClass(int[] classes, int i, int except) {
+        for (int k = 0; k < i; k++) {
+            if (k != except && classes[k] == classes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** sub and sup are sorted; multiset inclusion. */
+    private static boolean contains(int[] sup, int[] sub) {
+        int i = 0;
+        for (int x : sub) {
+            while (i < sup.length && sup[i] < x) {
+                i++;
+            }
+            if (i == sup.length || sup[i] != x) {
+                return false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Whether a recently failed state further down the stack held everything this one holds. Only a
+     * heuristic: solve() searches again without pruning if nothing is found.
+     */
+    private boolean dominated(int idx, int[] key) {
+        for (int later = idx + 1; later <= Math.min(idx + CAPACITY, stack.size()); later++) {
+            for (int[] other : failed.get(later)) {
+                if (contains(other, key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void fail(int idx, int[] key) {
+        ArrayDeque<int[]> recent = failed.get(idx);
+        if (recent.size() == DOMINANCE_WINDOW) {
+            recent.removeFirst();
+        }
+        recent.addLast(key);
+    }
+
+    /**
+     * Like dfs, but interchangeable items are tried once, independent combine / incinerate steps
+     * only in one order (each step's op key at least the last's unless it uses the last product),
+     * and dominated states are skipped.
+     */
+    private boolean prunedDfs(int idx, List<Item> inv, List<String> plan, long lastOp, Item lastProduct) {
+        if ((++statesVisited & 1023) == 0 && (cancelled || System.nanoTime() - startNanos > budgetNanos)) {
+            stopped = true;
+        }
+        if (stopped) {
+            return false;
+        }
+        deepestIndex = Math.max(deepestIndex, idx);
+        if (inv.contains(targetItem)) {
+            return plan.size() + leftovers(inv) < planLimit;
+        }
+        if (plan.size() + 1 >= planLimit) {
+            return false;
+        }
+        int[] key = key(inv);
+        long state = fingerprint(idx, key, lastOp);
+        if (dead.get(state) >= 0) {
+            return false;
+        }
+        int seenAt = visited.get(state);
+        // with a limit, getting here by a shorter route is worth another look
+        if (seenAt >= 0 && (planLimit == Integer.MAX_VALUE || seenAt <= plan.size())) {
+            return false;
+        }
+        if (useDominance && dominated(idx, key)) {
+            return false;
+        }
+        visited.put(state, plan.size());
+
+        if (inv.size() < CAPACITY && idx < stack.size()) {
+            Item next = stack.get(idx);
+            inv.add(next);
+            plan.add("take " + next.toPlanString());
+            if (prunedDfs(idx + 1, inv, plan, -1, null)) {
+                return true;
+            }
+            inv.removeLast();
+            plan.removeLast();
+        } else {
+            int[] classes = new int[inv.size()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = id(inv.get(i));
+            }
+            for (int i = 0; i < inv.size(); i++) {
+                if (!firstOfClass(classes, i, -1)) {
+                    continue;
+                }
+                Item a = inv.get(i);
+                for (int j = i + 1; j < inv.size(); j++) {
+                    if (!firstOfClass(classes, j, i)) {
+                        continue;
+                    }
+                    Item b = inv.get(j);
+
+                    Item result;
+                    String planString;
+                    long op;
+                    if (a.canCombineWith(b)) {
+                        result = a.combineWith(b);
+                        planString = "combine " + a.toPlanString() + " with " + b.toPlanString();
+                        op = OP_COMBINE | (long) classes[i] << 31 | classes[j];
+                    } else if (b.canCombineWith(a)) {
+                        result = b.combineWith(a);
+                        planString = "combine " + b.toPlanString() + " with " + a.toPlanString();
+                        op = OP_COMBINE | (long) classes[j] << 31 | classes[i];
+                    } else {
+                        continue;
+                    }
+                    if (op < lastOp && a != lastProduct && b != lastProduct) {
+                        // independent of the last step, tried in the other order
+                        continue;
+                    }
+
+                    inv.remove(j);
+                    inv.remove(i);
+                    inv.add(result);
+                    plan.add(planString);
+
+                    if (prunedDfs(idx, inv, plan, op, result)) {
+                        return true;
+                    }
+
+                    plan.removeLast();
+                    inv.removeLast();
+                    inv.add(i, a);
+                    inv.add(j, b);
+                }
+            }
+
+            for (int i = 0; i < inv.size(); i++) {
+                Item x = inv.get(i);
+                if (x.equals(targetItem) || this.inventory.contains(x) || neededItems.contains(x)) {
+                    continue;
+                }
+                long op = OP_INCINERATE | classes[i];
+                if (!firstOfClass(classes, i, -1) || (op < lastOp && x != lastProduct)) {
+                    continue;
+                }
+
+                inv.remove(i);
+                plan.add("incinerate " + x.toPlanString());
+                if (prunedDfs(idx, inv, plan, op, null)) {
+                    return true;
+                }
+                inv.add(i, x);
+                plan.removeLast();
+            }
+        }
+
+        fail(idx, key);
+        if (planLimit == Integer.MAX_VALUE && !stopped) {
+            dead.put(state, 0);
+        }
+        return false;
     }
 
     static Tuple2<Item, Item> unorderedPair(Item a, Item b) {
@@ -44,7 +291,7 @@ public class StackSolver {
     private boolean dfs(
         int idx,
         List<Item> inv,
-        Set<Integer> seen,
+        FingerprintTable seen,
         List<String> plan
     ) {
 
@@ -52,10 +299,11 @@ public class StackSolver {
             return true;
         }
 
-        int stateHash = Objects.hash(idx, new HashSet<>(inv));
-        if (!seen.add(stateHash)) {
+        long state = fingerprint(idx, key(inv), 0);
+        if (seen.get(state) >= 0) {
             return false;
         }
+        seen.put(state, plan.size());
 
         // take
         if (inv.size() < CAPACITY && idx < stack.size()) {
@@ -124,26 +372,157 @@ public class StackSolver {
         return false;
     }
 
+    /**
+     * What solve(Duration) came up with. plan is null if nothing was found in time; timedOut means
+     * a shorter plan may exist.
+     */
+    public record Result(List<String> plan, long statesVisited, int deepestIndex, int improvements, boolean timedOut) {
+        public boolean solved() {
+            return plan != null;
+        }
+    }
+
+    /**
+     * Anytime version of solve(): returns the best plan found within budget. Starts from the
+     * backward plan, or the first plan the search finds, and then searches again for anything shorter
+     * until it can't or time is up.
+     */
+    public Result solve(Duration budget) {
+        return solve(this.inventory, 0, budget);
+    }
+
+    /**
+     * Solves again from wherever executing an earlier plan left off, e.g. after a step failed: room
+     * and inventory are as they are now. If the room is what is left of the stack, the search
+     * starts from there and skips states already proven dead; otherwise the room is solved from
+     * scratch.
+     */
+    public Result resume(List<Item> room, List<Item> inventory, Duration budget) {
+        int from = stack.size() - room.size();
+        if (from < 0 || !stack.subList(from, stack.size()).equals(room)) {
+            return new StackSolver(room, this.inventory, targetItem, visitedBytes).solve(inventory, 0, budget);
+        }
+        return solve(inventory, from, budget);
+    }
+
+    private Result solve(List<Item> start, int from, Duration budget) {
+        try (var span = Latency.start("solve")) {
+            beginSearch(from, budget.toNanos());
+            List<String> best = null;
+            int improvements = 0;
+
+            List<Item> inventory = new ArrayList<>(start);
+            List<String> plan = new ArrayList<>();
+            if (regress(stack.subList(from, stack.size()), inventory, plan)) {
+                best = withCleanup(plan, inventory);
+            }
+            while (!stopped) {
+                planLimit = best == null ? Integer.MAX_VALUE : best.size();
+                resetSearch();
+                inventory = new ArrayList<>(start);
+                plan = new ArrayList<>();
+                if (prunedDfs(from, inventory, plan, -1, null)) {
+                    best = withCleanup(plan, inventory);
+                    improvements++;
+                } else if (best == null && useDominance && !stopped) {
+                    // dominance may have cut the only plans, and made states look dead
+                    useDominance = false;
+                    dead.clear();
+                } else {
+                    break;
+                }
+            }
+            return new Result(best, statesVisited, deepestIndex, improvements, stopped);
+        }
+    }
+
+    /** solve(budget) on another thread; cancelling the future stops the search. */
+    public CompletableFuture<Result> solveAsync(Duration budget) {
+        CompletableFuture<Result> result = CompletableFuture.supplyAsync(() -> solve(budget));
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                cancelled = true;
+            }
+        });
+        return result;
+    }
+
+    /** Every solve starts here, so nothing carries over from an earlier, timed-out or cancelled one. */
+    private void beginSearch(int from, long budgetNanos) {
+        startNanos = System.nanoTime();
+        this.budgetNanos = budgetNanos;
+        cancelled = false;
+        stopped = false;
+        statesVisited = 0;
+        deepestIndex = from;
+        useDominance = true;
+        planLimit = Integer.MAX_VALUE;
+    }
+
+    private void resetSearch() {
+        visited.clear();
+        failed.clear();
+        for (int i = 0; i <= stack.size(); i++) {
+            failed.add(new ArrayDeque<>());
+        }
+    }
+
+    /** Items left to incinerate once inv holds the target. */
+    private int leftovers(List<Item> inv) {
+        int n = 0;
+        for (Item x : inv) {
+            if (!x.equals(targetItem) && !this.inventory.contains(x)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private List<String> withCleanup(List<String> plan, List<Item> inv) {
+        List<String> full = new ArrayList<>(plan);
+        for (Item x : inv) {
+            if (!x.equals(targetItem) && !this.inventory.contains(x)) {
+                full.add("incinerate " + x.toPlanString());
+            }
+        }
+        return full;
+    }
+
     public List<String> solve() {
-        long startTime = System.currentTimeMillis();
-        List<String> plan = new ArrayList<>();
-        List<Item> inventory = new ArrayList<>(this.inventory);
-        Set<Integer> seen = new HashSet<>();
+        try (var span = Latency.start("solve")) {
+            return solvePlan();
+        }
+    }
 
-        if (!dfs(0, inventory, seen, plan)) {
-            throw new RuntimeException("No solution found");
+    private boolean regress(List<Item> stack, List<Item> inventory, List<String> plan) {
+        try (var span = Latency.start("solve.regression")) {
+            return new GoalRegressionPlanner(stack, this.inventory, targetItem).plan(inventory, plan);
         }
+    }
 
-        for (Item x : inventory) {
-            if (x.equals(targetItem) || this.inventory.contains(x)) {
-                continue;
+    private List<String> solvePlan() {
+        List<String> plan = new ArrayList<>();
+        List<Item> inventory = new ArrayList<>(this.inventory);
+        beginSearch(0, Long.MAX_VALUE);
+        resetSearch();
+
+        if (!regress(stack, inventory, plan)) {
+            plan.clear();
+            inventory = new ArrayList<>(this.inventory);
+            try (var span = Latency.start("solve.dfs")) {
+                if (!prunedDfs(0, inventory, plan, -1, null)) {
+                    // pruning only ever loses plans through dominance; look again without it
+                    plan.clear();
+                    inventory = new ArrayList<>(this.inventory);
+                    visited.clear();
+                    if (!dfs(0, inventory, visited, plan)) {
+                        throw new RuntimeException("No solution found");
+                    }
+                }
             }
-            plan.add("incinerate " + x.toPlanString());
         }
 
-        long endTime = System.currentTimeMillis();
-        System.out.println("Solved in " + (endTime - startTime) + "ms, plan length " + plan.size());
-        return plan;
+        return withCleanup(plan, inventory);
     }
 
     public static class Item implements Comparable<Item> {
@@ -154,6 +533,7 @@ public class StackSolver {
         private final String planName;
         // Cached fields
         private Integer cachedHash = null;
+        private String sansAdjectiveKey = null;
         private final Map<Item, Boolean> canCombineCache = new HashMap<>();
 
         public Item(String name, String adjective, Set<Item> missing) {
@@ -217,6 +597,17 @@ public class StackSolver {
             return new Item(name, adjective, newMissing);
         }
 
+        /** Same for items that are isEquivalentSansAdjective, except where missing holds two such items. */
+        String sansAdjectiveKey() {
+            if (sansAdjectiveKey == null) {
+                sansAdjectiveKey = missing.isEmpty() ? name : missing.stream()
+                    .map(Item::sansAdjectiveKey)
+                    .sorted()
+                    .collect(Collectors.joining(",", name + "(", ")"));
+            }
+            return sansAdjectiveKey;
+        }
+
         /** Recursive comparison ignoring adjectives */
         public boolean isEquivalentSansAdjective(Item other) {
             if (!name.equals(other.name)) return false;
@@ -343,12 +734,15 @@ public class StackSolver {
             String rawSexp = "(success (command (look (room (name \"53th Street and Dorchester Avenue\")(description \"You are standing at the corner of 53th Street and Dorchester Avenue. From here, you can go north, east, or south. \")(items ((item (name \"N-1623-AOE\")(description \"an exemplary instance of part number N-1623-AOE\")(adjectives ((adjective \"fern-green\") ))(condition (pristine ))(piled_on ((item (name \"R-4292-FRL\")(description \"an exemplary instance of part number R-4292-FRL\")(adjectives ((adjective \"burgundy\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"V-9887-KUS\")(condition (pristine ))) ))))(missing ((kind (name \"Z-6458-PXZ\")(condition (broken (condition (pristine ))(missing ((kind (name \"D-5065-UBI\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"F-6458-DDN\")(description \"an exemplary instance of part number F-6458-DDN\")(adjectives ((adjective \"pale-magenta\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"J-5065-IGU\")(condition (pristine ))) ))))(piled_on ((item (name \"H-1623-MYO\")(description \"an exemplary instance of part number H-1623-MYO\")(adjectives ((adjective \"peach-yellow\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"L-4292-RCV\")(condition (pristine ))) ))))(missing ((kind (name \"T-6458-BIL\")(condition (broken (condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"X-5065-GLS\")(condition (pristine ))) ))))(missing ((kind (name \"T-5065-OQC\")(condition (broken (condition (pristine ))(missing ((kind (name \"B-6678-LOZ\")(condition (pristine ))) ))))) ))))(missing ((kind (name \"F-9247-QRI\")(condition (pristine ))) ))))) ((kind (name \"P-9887-WFE\")(condition (pristine ))) )))))(piled_on ((item (name \"H-4292-ZHF\")(description \"an exemplary instance of part number H-4292-ZHF\")(adjectives ((adjective \"rotating\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"J-4832-VUP\")(condition (pristine ))) ))))(piled_on ((item (name \"R-6458-FXP\")(description \"an exemplary instance of part number R-6458-FXP\")(adjectives ((adjective \"low-carb\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"V-5065-KBW\")(condition (pristine ))) ((kind (name \"H-1623-MYO\")(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"L-4292-RCV\")(condition (pristine ))) ))))(missing ((kind (name \"P-9887-WFE\")(condition (pristine ))) ))))) ((kind (name \"H-4292-ZHF\")(condition (broken (condition (pristine ))(missing ((kind (name \"J-4832-VUP\")(condition (pristine ))) ))))) ))))))(piled_on ((item (name \"T-6458-BIL\")(description \"an exemplary instance of part number T-6458-BIL\")(adjectives ((adjective \"mysterious\") ))(condition (broken (condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"X-5065-GLS\")(condition (pristine ))) ))))(missing ((kind (name \"T-5065-OQC\")(condition (broken (condition (pristine ))(missing ((kind (name \"B-6678-LOZ\")(condition (pristine ))) ))))) ))))(missing ((kind (name \"F-9247-QRI\")(condition (pristine ))) ))))(piled_on ((item (name \"R-9247-SMK\")(description \"an exemplary instance of part number R-9247-SMK\")(adjectives ((adjective \"brass\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"V-4832-XPR\")(condition (pristine ))) ))))(piled_on ((item (name \"Z-1403-CSY\")(description \"an exemplary instance of part number Z-1403-CSY\")(adjectives ((adjective \"puce\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"D-0010-HVH\")(condition (pristine ))) ))))(piled_on ((item (name \"N-6678-NJD\")(description \"an exemplary instance of part number N-6678-NJD\")(adjectives ((adjective \"pink\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"R-9247-SMK\")(condition (broken (condition (pristine ))(missing ((kind (name \"V-4832-XPR\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"X-4292-TWX\")(description \"an exemplary instance of part number X-4292-TWX\")(adjectives ((adjective \"jade\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"N-6678-NJD\")(condition (pristine ))) ((kind (name \"B-9887-YAG\")(condition (pristine ))) )))))(piled_on ((item (name \"Z-6678-PEF\")(description \"an exemplary instance of part number Z-6678-PEF\")(adjectives ((adjective \"flax\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"X-4292-TWX\")(condition (broken (condition (pristine ))(missing ((kind (name \"B-9887-YAG\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"H-4832-ZKT\")(description \"an exemplary instance of part number H-4832-ZKT\")(adjectives ((adjective \"pale-blue\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"L-1403-ENC\")(condition (pristine ))) ))))(piled_on ((item (name \"P-0010-JQJ\")(description \"an exemplary instance of part number P-0010-JQJ\")(adjectives ((adjective \"gray60\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"P-9247-WCO\")(condition (pristine ))) ))))(missing ((kind (name \"T-1623-OTQ\")(condition (pristine ))) ))))(piled_on ((item (name \"J-1403-IDG\")(description \"an exemplary instance of part number J-1403-IDG\")(adjectives ((adjective \"olive-green\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"H-4832-ZKT\")(condition (broken (condition (pristine ))(missing ((kind (name \"L-1403-ENC\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"D-9247-UHM\")(description \"an exemplary instance of part number D-9247-UHM\")(adjectives ((adjective \"swamp-green\") ))(condition (pristine ))(piled_on ((item (name \"N-6458-NDX\")(description \"an exemplary instance of part number N-6458-NDX\")(adjectives ((adjective \"khaki\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"L-6678-RYH\")(condition (pristine ))) ))))(missing ((kind (name \"Z-6678-PEF\")(condition (pristine ))) ((kind (name \"J-1403-IDG\")(condition (pristine ))) ((kind (name \"P-9247-WCO\")(condition (pristine ))) ))))))(piled_on ((item (name \"V-9887-KUS\")(description \"an exemplary instance of part number V-9887-KUS\")(adjectives ((adjective \"red-violet\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"R-6458-FXP\")(condition (broken (condition (pristine ))(missing ((kind (name \"V-5065-KBW\")(condition (pristine ))) ))))) ((kind (name \"T-4832-BFV\")(condition (pristine ))) ((kind (name \"H-6678-ZEP\")(condition (broken (condition (pristine ))(missing ((kind (name \"V-9887-KUS\")(condition (pristine ))) ))))) ))))))(piled_on ((item (name \"N-0010-NGN\")(description \"an exemplary instance of part number N-0010-NGN\")(adjectives ((adjective \"tea-green\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"N-6458-NDX\")(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"L-6678-RYH\")(condition (pristine ))) ))))(missing ((kind (name \"P-9247-WCO\")(condition (pristine ))) ))))) ((kind (name \"R-1623-SJU\")(condition (pristine ))) )))))(piled_on ((item (name \"X-1403-GIE\")(description \"an exemplary instance of part number X-1403-GIE\")(adjectives ((adjective \"cinnamon\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"B-0010-LLL\")(condition (pristine ))) ))))(missing ((kind (name \"F-1623-QOS\")(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"J-4292-VRZ\")(condition (pristine ))) ))))(missing ((kind (name \"N-9887-AUI\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"T-4832-BFV\")(description \"an exemplary instance of part number T-4832-BFV\")(adjectives ((adjective \"gray20\") ))(condition (pristine ))(piled_on ((item (name \"D-6458-HSR\")(description \"an exemplary instance of part number D-6458-HSR\")(adjectives ((adjective \"beige\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"H-5065-MVY\")(condition (pristine ))) ))))(piled_on ((item (name \"F-4832-DAX\")(description \"an exemplary instance of part number F-4832-DAX\")(adjectives ((adjective \"ghost-white\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"J-1403-IDG\")(condition (pristine ))) ((kind (name \"D-6458-HSR\")(condition (broken (condition (pristine ))(missing ((kind (name \"H-5065-MVY\")(condition (pristine ))) ))))) ((kind (name \"V-4292-XMD\")(condition (broken (condition (pristine ))(missing ((kind (name \"Z-9887-CPK\")(condition (pristine ))) ))))) ((kind (name \"N-0010-NGN\")(condition (broken (condition (pristine ))(missing ((kind (name \"R-1623-SJU\")(condition (pristine ))) ))))) )))))))(piled_on ((item (name \"V-4292-XMD\")(description \"an exemplary instance of part number V-4292-XMD\")(adjectives ((adjective \"olive-green\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"Z-9887-CPK\")(condition (pristine ))) ))))(piled_on ((item (name \"H-4292-ZHF\")(description \"an exemplary instance of part number H-4292-ZHF\")(adjectives ((adjective \"light-brown\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"L-9887-EKM\")(condition (pristine ))) ))))(piled_on ((item (name \"X-6678-TTJ\")(description \"an exemplary instance of part number X-6678-TTJ\")(adjectives ((adjective \"lawn-green\") ))(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"B-9247-YWQ\")(condition (pristine ))) ))))(missing ((kind (name \"X-9887-GFO\")(condition (pristine ))) ((kind (name \"F-4832-DAX\")(condition (broken (condition (pristine ))(missing ((kind (name \"J-1403-IDG\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"T-4292-BCH\")(description \"an exemplary instance of part number T-4292-BCH\")(adjectives ((adjective \"aquamarine\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"X-9887-GFO\")(condition (pristine ))) ((kind (name \"X-6678-TTJ\")(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"B-9247-YWQ\")(condition (pristine ))) ))))(missing ((kind (name \"X-9887-GFO\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"P-6458-JNT\")(description \"an exemplary instance of part number P-6458-JNT\")(adjectives ((adjective \"maroon\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"T-5065-OQC\")(condition (pristine ))) ))))(piled_on ((item (name \"Z-0010-PBP\")(description \"an exemplary instance of part number Z-0010-PBP\")(adjectives ((adjective \"rust\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"D-1623-UEW\")(condition (pristine ))) ((kind (name \"H-4292-ZHF\")(condition (broken (condition (pristine ))(missing ((kind (name \"L-9887-EKM\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"F-5065-QLE\")(description \"an exemplary instance of part number F-5065-QLE\")(adjectives ((adjective \"cyan\") ))(condition (broken (condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"J-6678-VOL\")(condition (pristine ))) ))))(missing ((kind (name \"N-9247-ARS\")(condition (pristine ))) ))))(missing ((kind (name \"Z-0010-PBP\")(condition (broken (condition (pristine ))(missing ((kind (name \"D-1623-UEW\")(condition (pristine ))) ))))) ((kind (name \"R-4832-FUZ\")(condition (broken (condition (pristine ))(missing ((kind (name \"V-1403-KXI\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"V-9887-KUS\")(description \"an exemplary instance of part number V-9887-KUS\")(adjectives ((adjective \"lavender-blush\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"H-1403-MSK\")(condition (pristine ))) ))))(piled_on ((item (name \"B-6458-LIV\")(description \"an exemplary instance of part number B-6458-LIV\")(adjectives ((adjective \"olive-drab\") ))(condition (pristine ))(piled_on ((item (name \"D-5065-UBI\")(description \"an exemplary instance of part number D-5065-UBI\")(adjectives ((adjective \"plum\") ))(condition (broken (condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"R-5065-SGG\")(condition (pristine ))) ))))(missing ((kind (name \"V-6678-XJN\")(condition (pristine ))) ))))(missing ((kind (name \"Z-9247-CMU\")(condition (pristine ))) ((kind (name \"T-4292-BCH\")(condition (broken (condition (pristine ))(missing ((kind (name \"X-9887-GFO\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"L-9247-EHW\")(description \"an exemplary instance of part number L-9247-EHW\")(adjectives ((adjective \"magenta\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"P-4832-JKF\")(condition (broken (condition (pristine ))(missing ((kind (name \"T-1403-ONM\")(condition (pristine ))) ))))) ((kind (name \"D-5065-UBI\")(condition (broken (condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"R-5065-SGG\")(condition (pristine ))) ))))(missing ((kind (name \"V-6678-XJN\")(condition (pristine ))) ))))(missing ((kind (name \"Z-9247-CMU\")(condition (pristine ))) ))))) ((kind (name \"P-1623-WYY\")(condition (pristine ))) ))))))(piled_on ((item (name \"P-1623-WYY\")(description \"an exemplary instance of part number P-1623-WYY\")(adjectives ((adjective \"ochre\") ))(condition (pristine ))(piled_on ((item (name \"D-4832-HPD\")(description \"an exemplary instance of part number D-4832-HPD\")(adjectives ((adjective \"gray60\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"H-1403-MSK\")(condition (broken (condition (pristine ))(missing ((kind (name \"L-0010-RVR\")(condition (pristine ))) ))))) ))))(piled_on ((item (name \"B-1623-YTC\")(description \"an exemplary instance of part number B-1623-YTC\")(adjectives ((adjective \"chestnut\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"F-4292-DWJ\")(condition (pristine ))) ((kind (name \"Z-6458-PXZ\")(condition (broken (condition (pristine ))(missing ((kind (name \"J-9887-IAQ\")(condition (pristine ))) ))))) )))))(piled_on ((item (name \"Z-6458-PXZ\")(description \"an exemplary instance of part number Z-6458-PXZ\")(adjectives ((adjective \"rust\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"N-6458-NDX\")(condition (pristine ))) ))))(piled_on ((item (name \"Z-6458-PXZ\")(description \"an exemplary instance of part number Z-6458-PXZ\")(adjectives ((adjective \"robin-egg-blue\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"J-9887-IAQ\")(condition (pristine ))) ))))(piled_on ((item (name \"display\")(description \"a handheld device for showing textual data\")(adjectives )(condition (broken (condition (pristine ))(missing ((kind (name \"L-9247-EHW\")(condition (broken (condition (pristine ))(missing ((kind (name \"P-4832-JKF\")(condition (broken (condition (pristine ))(missing ((kind (name \"T-1403-ONM\")(condition (pristine ))) ))))) ))))) ((kind (name \"B-1623-YTC\")(condition (broken (condition (pristine ))(missing ((kind (name \"F-4292-DWJ\")(condition (pristine ))) ))))) ((kind (name \"R-4292-FRL\")(condition (broken (condition (broken (condition (pristine ))(missing ((kind (name \"V-9887-KUS\")(condition (pristine ))) ))))(missing ((kind (name \"Z-6458-PXZ\")(condition (broken (condition (pristine ))(missing ((kind (name \"D-5065-UBI\")(condition (pristine ))) ))))) ))))) ((kind (name \"N-1623-AOE\")(condition (pristine ))) )))))))(piled_on ((item (name \"X-0010-TQT\")(description \"an exemplary instance of part number X-0010-TQT\")(adjectives ((adjective \"navajo-white\") ))(condition (broken (condition (pristine ))(missing ((kind (name \"H-6678-ZEP\")(condition (pristine ))) ))))(piled_on )) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))) ))))))";
             var roomInfo = SexpToItems.parseStack(rawSexp);
             System.out.println(roomInfo);
-            StackSolver solver = new StackSolver(roomInfo._2, new ArrayList<>(), new Item("display", null, Set.of()));
+            Item display = new Item("display", null, Set.of());
+            StackSolver solver = new StackSolver(roomInfo._2, new ArrayList<>(), display);
             List<String> plan = solver.solve();
             System.out.println("Plan:");
             for (String step : plan) {
                 System.out.println(step);
             }
+            AdventureSimulator simulator = new AdventureSimulator(roomInfo, List.of());
+            System.out.println("Simulated: " + (simulator.validates(plan, display) ? "ok" : simulator.failure()));
 
         }
 
@@ -0,0 +1,139 @@
+package alexwyler;
+
+import alexwyler.IO.AsyncCallResponseIO;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps size UMIX sessions booted ahead of time, parked at the login prompt or, given a Login,
+ * at the shell prompt. take() hands out the oldest one and starts booting its replacement in the
+ * background, so a caller only waits for a boot when it takes faster than the pool can boot. The
+ * boots run the same interpreter code as the sessions, so that code is JIT-compiled by the time a
+ * session is taken.
+ * <p>
+ * Sessions are used once: closing one discards its VM. UMIX has no cheap way back to a clean
+ * login, and a fresh boot is what the pool is for.
+ */
+public class UmixPool implements AutoCloseable {
+
+    static final Duration BOOT_TIMEOUT = Duration.ofMinutes(1);
+
+    public record Login(String user, String password) {
+    }
+
+    private final int[] image;
+    private final Login login;
+    private final VMScheduler scheduler;
+    // oldest first
+    private final ArrayDeque<CompletableFuture<Session>> booting = new ArrayDeque<>();
+    private final ExecutorService booter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "umix-pool");
+        t.setDaemon(true);
+        return t;
+    });
+    private boolean closed = false;
+
+    /** login may be null to park sessions at the login prompt. */
+    public UmixPool(int[] image, int size, Login login, VMScheduler scheduler) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size " + size);
+        }
+        this.image = image;
+        this.login = login;
+        this.scheduler = scheduler;
+        synchronized (this) {
+            for (int i = 0; i < size; i++) {
+                booting.add(CompletableFuture.supplyAsync(this::boot, booter));
+            }
+        }
+    }
+
+    /** A booted session, waiting for it only if none is ready yet. Fails if its boot failed. */
+    public Session take() {
+        CompletableFuture<Session> next;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Pool closed");
+            }
+            next = booting.poll();
+            booting.add(CompletableFuture.supplyAsync(this::boot, booter));
+        }
+        try (var span = Latency.start("pool.take")) {
+            return next.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : e;
+        }
+    }
+
+    /** Sessions booted and waiting to be taken. */
+    public synchronized int ready() {
+        return (int) booting.stream().filter(f -> f.isDone() && !f.isCompletedExceptionally()).count();
+    }
+
+    private Session boot() {
+        try (var span = Latency.start("pool.boot")) {
+            AsyncCallResponseIO io = new AsyncCallResponseIO();
+            VMScheduler.Session scheduled = scheduler.submit(new VM(image.clone(), List.of(io)), io);
+            Session session = new Session(io, scheduled);
+            try {
+                session.greeting = io.awaitOutput(BOOT_TIMEOUT);
+                if (login != null) {
+                    session.greeting = io.call(login.user() + "\n" + login.password());
+                }
+            } catch (RuntimeException e) {
+                session.close();
+                throw e;
+            }
+            return session;
+        }
+    }
+
+    /** Discards every session not taken yet; taken ones are the caller's to close. */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (CompletableFuture<Session> f : booting) {
+                f.thenAccept(Session::close);
+            }
+            booting.clear();
+        }
+        booter.shutdownNow();
+    }
+
+    public static final class Session implements AutoCloseable {
+        private final AsyncCallResponseIO io;
+        private final VMScheduler.Session scheduled;
+        private String greeting;
+
+        private Session(AsyncCallResponseIO io, VMScheduler.Session scheduled) {
+            this.io = io;
+            this.scheduled = scheduled;
+        }
+
+        public AsyncCallResponseIO io() {
+            return io;
+        }
+
+        /** What the session last said before it was handed out: the login or shell prompt. */
+        public String greeting() {
+            return greeting;
+        }
+
+        public CompletableFuture<Void> done() {
+            return scheduled.done();
+        }
+
+        @Override
+        public void close() {
+            scheduled.kill(new IllegalStateException("Session closed"));
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package alexwyler;
+
+import alexwyler.IO.AsyncCallResponseIO;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Uploads files into a UMIX shell the way hack.bas.sh does by hand: /bin/umodem name TERMINATOR,
+ * the file's lines, then the terminator. The whole upload goes to OP_IN as one chunk through
+ * AsyncCallResponseIO.call(byte[]), so lines keep their leading spaces and the VM reads it without
+ * a handoff per line.
+ */
+public final class Umodem {
+
+    private Umodem() {
+    }
+
+    public static String upload(AsyncCallResponseIO io, Path file) {
+        try {
+            return upload(io, file.getFileName().toString(), Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static String upload(AsyncCallResponseIO io, String name, String content) {
+        return upload(io, name, content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /** Writes content to name in the session's current directory; returns what umodem said. */
+    public static String upload(AsyncCallResponseIO io, String name, byte[] content) {
+        if (name.isEmpty() || name.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Bad umodem file name: '" + name + "'");
+        }
+        String terminator = terminator(name);
+        String body = normalize(new String(content, StandardCharsets.ISO_8859_1));
+        if (("\n" + body).contains("\n" + terminator + "\n")) {
+            throw new IllegalArgumentException(name + " contains its terminator " + terminator);
+        }
+        String upload = "/bin/umodem " + name + " " + terminator + "\n" + body + terminator + "\n";
+        try (var span = Latency.start("umodem")) {
+            return io.call(upload.getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /** Uploads a BASIC program and compiles it with /bin/qbasic; returns what qbasic said. */
+    public static String uploadAndCompile(AsyncCallResponseIO io, Path file) {
+        upload(io, file);
+        return compile(io, file.getFileName().toString());
+    }
+
+    public static String uploadAndCompile(AsyncCallResponseIO io, String name, String content) {
+        upload(io, name, content);
+        return compile(io, name);
+    }
+
+    private static String compile(AsyncCallResponseIO io, String name) {
+        try (var span = Latency.start("umodem.compile")) {
+            return io.call("/bin/qbasic " + name);
+        }
+    }
+
+    /** hack.bas -> __END_HACK_BAS__ */
+    static String terminator(String name) {
+        return "__END_" + name.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_") + "__";
+    }
+
+    /** Unix line endings, ending with one. */
+    static String normalize(String content) {
+        String lines = content.replace("\r\n", "\n").replace('\r', '\n');
+        return lines.isEmpty() || lines.endsWith("\n") ? lines : lines + "\n";
+    }
+
+}
@@ -36,12 +36,58 @@ public class VM {
     final private int[] registers = new int[8];
     private int[] program;
     private int pc = 0;
+    private int ioIndex = -1;
+    private IO io = null;
+    private boolean halted = false;
+    private long instructions = 0;
+    // instruction count at the last OP_IN
+    private long lastInput = 0;
+    private volatile boolean stopRequested = false;
 
     private final List<IO> ios;
 
+    public enum Status {
+        HALTED,
+        /** OP_IN found no input ready; run again once there is some */
+        NEEDS_INPUT,
+        BUDGET_EXHAUSTED,
+        /** OP_OUT found the IO's output full; run again once it has been picked up */
+        OUTPUT_READY
+    }
+
+    /**
+     * Thrown when an allocation would take a VM past its quota. The VM halts; used, limit and
+     * requested are in platter words or in arrays, depending on resource.
+     */
+    public static class QuotaExceededException extends RuntimeException {
+        public enum Resource {
+            WORDS,
+            ARRAYS
+        }
+
+        public final Resource resource;
+        public final long limit;
+        public final long used;
+        public final long requested;
+
+        public QuotaExceededException(Resource resource, long limit, long used, long requested) {
+            super("Quota exceeded: " + requested + " more " + resource.name().toLowerCase()
+                + " with " + used + " of " + limit + " in use");
+            this.resource = resource;
+            this.limit = limit;
+            this.used = used;
+            this.requested = requested;
+        }
+    }
+
     public VM(int[] program, final List<IO> ios) {
+        this(program, ios, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /** maxWords caps the platters held by live arrays (array 0 included), maxArrays their number. */
+    public VM(int[] program, final List<IO> ios, long maxWords, int maxArrays) {
         this.ios = ios;
-        arrays = new PlatterArrays();
+        arrays = new PlatterArrays(maxWords, maxArrays);
         arrays.alloc(program.length);
         arrays.set(0, program);
         this.program = program;
@@ -49,18 +95,64 @@ public class VM {
 
 
     public CompletableFuture<Void> runAsync() {
-        return CompletableFuture.runAsync(this::run);
+        return CompletableFuture.runAsync(() -> execute(Long.MAX_VALUE, false));
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+
+    /**
+     * Halts the VM at its next OP_IN or OP_OUT, e.g. once a callUntil has seen what it was waiting
+     * for.
+     */
+    public void stop() {
+        stopRequested = true;
+    }
+
+    /** Platter words held by live arrays, as counted against the quota. */
+    public long liveWords() {
+        return arrays.liveWords();
     }
 
-    private void run() {
+    public int liveArrays() {
+        return arrays.liveArrays();
+    }
+
+    /** Instructions run so far, counting an OP_IN that suspended. */
+    public long instructionCount() {
+        return instructions;
+    }
+
+    /** Instruction count at the last OP_IN, whether it read a byte or suspended. */
+    public long lastInput() {
+        return lastInput;
+    }
+
+    /**
+     * Runs at most instructionBudget instructions and returns instead of blocking. Calling it again
+     * resumes where it left off.
+     */
+    public Status run(long instructionBudget) {
+        return execute(instructionBudget, true);
+    }
+
+    private Status execute(long budget, boolean suspend) {
+        if (halted) {
+            return Status.HALTED;
+        }
         var registers = this.registers;
         var arrays = this.arrays;
         var pc = this.pc;
         var program = this.program;
-        int ioIndex = -1;
-        IO io = null;
+        var ioIndex = this.ioIndex;
+        var io = this.io;
+        long remaining = budget;
         try {
             while (true) {
+                if (--remaining < 0) {
+                    return Status.BUDGET_EXHAUSTED;
+                }
                 int instr = program[pc++];
                 int op = instr >>> 28;
                 if (op == OP_ORTHO) {
@@ -88,7 +180,7 @@ public class VM {
                         if (index == 0) {
                             registers[A] = program[offset];
                         } else {
-                            registers[A] = arrays.get(index)[offset];
+                            registers[A] = arrays.read(index, offset);
                         }
                     }
                     break;
@@ -99,6 +191,10 @@ public class VM {
                             program[offset] = registers[C];
                         } else {
                             arrays.amend(index, offset, registers[C]);
+                            if (index == 0) {
+                                // a write to an aliased array 0 copied it
+                                program = arrays.get(0);
+                            }
                         }
                     }
                     break;
@@ -115,7 +211,8 @@ public class VM {
                         registers[A] = ~(registers[B] & registers[C]);
                         break;
                     case OP_HALT:
-                        return;
+                        halted = true;
+                        return Status.HALTED;
                     case OP_ALLOC:
                         registers[B] = arrays.alloc(registers[C]);
                         break;
@@ -123,16 +220,35 @@ public class VM {
                         arrays.abandon(registers[C]);
                         break;
                     case OP_OUT:
+                        if (stopRequested) {
+                            halted = true;
+                            return Status.HALTED;
+                        }
                         if (io == null || io.isDone()) {
                             io = ios.get(++ioIndex);
                         }
+                        if (suspend && io.outputReady()) {
+                            // run OP_OUT again on resume
+                            pc--;
+                            return Status.OUTPUT_READY;
+                        }
                         IntConsumer out = io.getOut();
                         out.accept(registers[C] & 0xFF);
                         break;
                     case OP_IN:
+                        if (stopRequested) {
+                            halted = true;
+                            return Status.HALTED;
+                        }
                         if (io == null || io.isDone()) {
                             io = ios.get(++ioIndex);
                         }
+                        lastInput = instructions + budget - remaining;
+                        if (suspend && !io.inputReady()) {
+                            // run OP_IN again on resume
+                            pc--;
+                            return Status.NEEDS_INPUT;
+                        }
                         registers[C] = io.getIn().getAsInt();
                         break;
                     case OP_LOAD:
@@ -143,9 +259,18 @@ public class VM {
                         throw new IllegalStateException("Invalid opcode " + op);
                 }
             }
+        } catch (QuotaExceededException e) {
+            halted = true;
+            throw e;
         } finally {
             this.pc = pc;
             this.program = program;
+            this.ioIndex = ioIndex;
+            this.io = io;
+            this.instructions += budget - Math.max(remaining, 0);
+            if (io != null) {
+                io.sliceEnded();
+            }
         }
     }
 }
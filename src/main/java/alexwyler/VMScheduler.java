@@ -0,0 +1,194 @@
+package alexwyler;
+
+import alexwyler.VM.Status;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Time-slices many VMs over a fixed set of worker threads using VM.run(long).
+ * <p>
+ * Sessions waiting for input, or for their output to be picked up, are parked off the run queues
+ * until {@link Session#wake()}. Sessions that were just woken go on the interactive queue. Sessions
+ * that used up a whole slice go on the batch queue. Interactive sessions are picked first, but every
+ * {@link #BATCH_EVERY}th pick goes to the batch queue so CPU-bound sessions still make progress. A
+ * session that runs more than runawayInstructions without asking for input is killed.
+ */
+public class VMScheduler implements AutoCloseable {
+
+    static final int BATCH_EVERY = 4;
+
+    private static final int PARKED = 0;
+    private static final int QUEUED = 1;
+    private static final int RUNNING = 2;
+    private static final int DONE = 3;
+
+    private final long sliceInstructions;
+    private final long runawayInstructions;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final ArrayDeque<Session> interactive = new ArrayDeque<>();
+    private final ArrayDeque<Session> batch = new ArrayDeque<>();
+    private int picks = 0;
+    private boolean closed = false;
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    public VMScheduler(int workerCount, long sliceInstructions, long runawayInstructions) {
+        this.sliceInstructions = sliceInstructions;
+        this.runawayInstructions = runawayInstructions;
+        for (int i = 0; i < workerCount; i++) {
+            Thread t = new Thread(this::work, "vm-worker-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    public final class Session {
+        final VM vm;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private final AtomicInteger state = new AtomicInteger(QUEUED);
+        private final AtomicBoolean wakePending = new AtomicBoolean();
+
+        private Session(VM vm) {
+            this.vm = vm;
+        }
+
+        public CompletableFuture<Void> done() {
+            return done;
+        }
+
+        /**
+         * Input may be ready or output picked up: put the session back on a run queue if it was
+         * waiting for that.
+         */
+        public void wake() {
+            wakePending.set(true);
+            if (state.compareAndSet(PARKED, QUEUED)) {
+                wakePending.set(false);
+                enqueue(this, true);
+            }
+        }
+
+        public void kill(Throwable reason) {
+            if (state.getAndSet(DONE) != DONE) {
+                done.completeExceptionally(reason);
+            }
+        }
+    }
+
+    public Session submit(VM vm) {
+        Session session = new Session(vm);
+        enqueue(session, true);
+        return session;
+    }
+
+    /** Submits a VM talking through asyncIO and wakes it whenever a command is sent. */
+    public Session submit(VM vm, IO.AsyncCallResponseIO asyncIO) {
+        Session session = new Session(vm);
+        asyncIO.onInput(session::wake);
+        enqueue(session, true);
+        return session;
+    }
+
+    private void enqueue(Session session, boolean isInteractive) {
+        lock.lock();
+        try {
+            (isInteractive ? interactive : batch).add(session);
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Session take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (interactive.isEmpty() && batch.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            boolean batchTurn = ++picks % BATCH_EVERY == 0;
+            if (interactive.isEmpty() || (batchTurn && !batch.isEmpty())) {
+                return batch.poll();
+            }
+            return interactive.poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Session session;
+            try {
+                session = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (session == null) {
+                return;
+            }
+            if (!session.state.compareAndSet(QUEUED, RUNNING)) {
+                // killed while queued
+                continue;
+            }
+            runSlice(session);
+        }
+    }
+
+    private void runSlice(Session session) {
+        Status status;
+        try {
+            status = session.vm.run(sliceInstructions);
+        } catch (RuntimeException e) {
+            session.kill(e);
+            return;
+        }
+        switch (status) {
+            case HALTED -> {
+                if (session.state.getAndSet(DONE) != DONE) {
+                    session.done.complete(null);
+                }
+            }
+            case NEEDS_INPUT, OUTPUT_READY -> {
+                if (session.state.compareAndSet(RUNNING, PARKED) && session.wakePending.getAndSet(false)) {
+                    session.wake();
+                }
+            }
+            case BUDGET_EXHAUSTED -> {
+                if (session.vm.instructionCount() - session.vm.lastInput() > runawayInstructions) {
+                    session.kill(new IllegalStateException(
+                        "Runaway session: " + runawayInstructions + " instructions without asking for input"));
+                } else if (session.state.compareAndSet(RUNNING, QUEUED)) {
+                    enqueue(session, session.wakePending.getAndSet(false));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread t : workers) {
+            t.interrupt();
+        }
+    }
+
+}
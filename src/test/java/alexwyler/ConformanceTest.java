@@ -0,0 +1,277 @@
+package alexwyler;
+
+import alexwyler.IO.AsyncCallResponseIO;
+import alexwyler.IO.FileScript;
+import alexwyler.IO.StringIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletionException;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the bundled images and compares what they print against checksums in golden.properties.
+ * Every run also has to reach um.mipsFloor million instructions per second.
+ */
+class ConformanceTest {
+
+    static final String CODEX_KEY = "(\\b.bb)(\\v.vv)06FHPVboundvarHRAk";
+    static final long MAX_INSTRUCTIONS = 50_000_000_000L;
+    static final double MIPS_FLOOR = Double.parseDouble(System.getProperty("um.mipsFloor", "20"));
+    static final Properties GOLDEN = golden();
+
+    private static byte[] umixImage;
+
+    /** Collects output and never has input, so VM.run stops at the first OP_IN. */
+    static final class Capture implements IO {
+        final ByteArrayOutputStream bytes;
+
+        Capture(ByteArrayOutputStream bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public IntSupplier getIn() {
+            return () -> {
+                throw new IllegalStateException("No input");
+            };
+        }
+
+        @Override
+        public IntConsumer getOut() {
+            return bytes::write;
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+
+        @Override
+        public boolean inputReady() {
+            return false;
+        }
+    }
+
+    record Run(VM.Status status, byte[] output, long instructions, long nanos) {
+        double mips() {
+            return instructions * 1000.0 / nanos;
+        }
+    }
+
+    /**
+     * Runs until the VM halts or wants input nobody has. FileScript and StringIO echo to System.out,
+     * so that is captured into the same output.
+     */
+    static Run run(int[] program, IO... scripts) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.ISO_8859_1));
+        try {
+            List<IO> ios = new ArrayList<>(List.of(scripts));
+            ios.add(new Capture(bytes));
+            VM vm = new VM(program, ios);
+            long start = System.nanoTime();
+            VM.Status status = vm.run(MAX_INSTRUCTIONS);
+            long nanos = System.nanoTime() - start;
+            return new Run(status, bytes.toByteArray(), vm.instructionCount(), nanos);
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    static void assertConforms(String name, Run run, VM.Status expected) {
+        System.out.printf("%s: %s after %,d instructions, %.1f MIPS%n", name, run.status(), run.instructions(), run.mips());
+        assertEquals(expected, run.status(), name);
+        assertEquals(GOLDEN.getProperty(name), sha256(run.output()), name + " output");
+        assertTrue(run.mips() >= MIPS_FLOOR, name + " ran at " + run.mips() + " MIPS, floor is " + MIPS_FLOOR);
+    }
+
+    @Test
+    void sandmark() {
+        assertConforms("sandmark", run(Main.decodeProgram("/sandmark.umz")), VM.Status.HALTED);
+    }
+
+    @Test
+    void codexSelfCheck() {
+        Run run = run(Main.decodeProgram("/codex.umz"));
+        assertTrue(new String(run.output(), StandardCharsets.ISO_8859_1).contains("self-check succeeded!"));
+        assertConforms("codex.selfcheck", run, VM.Status.NEEDS_INPUT);
+    }
+
+    @Test
+    void codexDump() {
+        assertEquals(GOLDEN.getProperty("umix"), sha256(umixBytes()), "umix image");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+        "adventure_input_manual.txt",
+        "adventure_chicago_solve.txt",
+        "adventure_trash_room_stack_solve.txt",
+        "adventure_trash_room_solve.txt",
+        "adventure_examine_input.txt",
+    })
+    void adventureReplay(String script) {
+        Run run = run(umix(), new FileScript(script));
+        assertConforms(script, run, script.equals("adventure_examine_input.txt") ? VM.Status.HALTED : VM.Status.NEEDS_INPUT);
+    }
+
+    /** Echoes every byte it reads: IN r1, OUT r1, jump back to 0. */
+    static final int[] ECHO = {
+        (11 << 28) | 1,
+        (10 << 28) | 1,
+        (13 << 28) | (2 << 25),
+        (12 << 28) | (2 << 3) | 2,
+    };
+
+    @Test
+    void callUntilThenCall() throws Exception {
+        try (VMScheduler scheduler = new VMScheduler(1, 1_000_000, Long.MAX_VALUE)) {
+            AsyncCallResponseIO io = new AsyncCallResponseIO();
+            VMScheduler.Session session = scheduler.submit(new VM(ECHO.clone(), List.of(io)), io);
+            try {
+                assertEquals("", io.awaitOutput(Duration.ofSeconds(10)));
+                assertEquals("hello\n", io.call("hello"));
+                assertEquals("ab", io.callUntil("abc", Duration.ofSeconds(10), "b").get());
+                // what followed the prompt starts the next response instead of being one
+                assertEquals("c\nxyz\n", io.call("xyz"));
+                assertEquals("qq\n", io.call("qq"));
+            } finally {
+                session.kill(new IllegalStateException("Test done"));
+            }
+        }
+    }
+
+    @Test
+    void callUntilTimeoutThenCall() throws Exception {
+        try (VMScheduler scheduler = new VMScheduler(1, 1_000_000, Long.MAX_VALUE)) {
+            AsyncCallResponseIO io = new AsyncCallResponseIO();
+            VMScheduler.Session session = scheduler.submit(new VM(ECHO.clone(), List.of(io)), io);
+            try {
+                assertEquals("", io.awaitOutput(Duration.ofSeconds(10)));
+                var missed = io.callUntil("abc", Duration.ofMillis(100), "never");
+                assertThrows(CompletionException.class, missed::join);
+                // what the timed-out command printed isn't the next command's response
+                assertEquals("xyz\n", io.call("xyz"));
+                assertEquals("qq\n", io.call("qq"));
+            } finally {
+                session.kill(new IllegalStateException("Test done"));
+            }
+        }
+    }
+
+    /** Never reads or writes: r2 = 0, jump back to 0. */
+    static final int[] SPIN = {
+        (13 << 28) | (2 << 25),
+        (12 << 28) | (2 << 3) | 2,
+    };
+
+    @Test
+    void spinnersDontStarveEcho() throws Exception {
+        long slice = 1_000_000;
+        int calls = 20;
+        try (VMScheduler scheduler = new VMScheduler(1, slice, Long.MAX_VALUE)) {
+            List<VMScheduler.Session> spinners = new ArrayList<>();
+            List<VM> spinnerVMs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                VM vm = new VM(SPIN.clone(), List.of());
+                VMScheduler.Session spinner = scheduler.submit(vm);
+                // a wake that lands while it's queued or running, as a stray command would
+                spinner.wake();
+                spinners.add(spinner);
+                spinnerVMs.add(vm);
+            }
+            AsyncCallResponseIO io = new AsyncCallResponseIO();
+            VMScheduler.Session echo = scheduler.submit(new VM(ECHO.clone(), List.of(io)), io);
+            try {
+                assertEquals("", io.awaitOutput(Duration.ofSeconds(10)));
+                long before = spinnerVMs.stream().mapToLong(VM::instructionCount).sum();
+                for (int i = 0; i < calls; i++) {
+                    assertEquals(i + "\n", io.call(String.valueOf(i)));
+                }
+                long spun = spinnerVMs.stream().mapToLong(VM::instructionCount).sum() - before;
+                // batch sessions get every BATCH_EVERYth pick, so each call waits out a couple of
+                // slices at most, not one per spinner
+                assertTrue(spun <= 3 * calls * slice, spun / slice + " spinner slices ran during " + calls + " calls");
+            } finally {
+                echo.kill(new IllegalStateException("Test done"));
+                spinners.forEach(it -> it.kill(new IllegalStateException("Test done")));
+            }
+        }
+    }
+
+    /** UMIX as dumped by the decrypted codex ("p" at its menu). */
+    static int[] umix() {
+        byte[] bytes = umixBytes();
+        int[] program = new int[bytes.length / 4];
+        ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(program);
+        return program;
+    }
+
+    private static synchronized byte[] umixBytes() {
+        if (umixImage != null) {
+            return umixImage;
+        }
+        Run run = run(Main.decodeProgram("/codex.umz"), new StringIO(CODEX_KEY + "\np\n"));
+        byte[] out = run.output();
+        byte[] marker = "UM program follows colon:".getBytes(StandardCharsets.ISO_8859_1);
+        int start = indexOf(out, marker) + marker.length;
+        assertTrue(start >= marker.length, "codex didn't dump UMIX");
+        umixImage = Arrays.copyOfRange(out, start, out.length);
+        return umixImage;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0; i <= haystack.length - needle.length; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Properties golden() {
+        Properties p = new Properties();
+        try (InputStream in = ConformanceTest.class.getResourceAsStream("/golden.properties")) {
+            p.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return p;
+    }
+
+}
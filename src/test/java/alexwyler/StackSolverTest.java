@@ -0,0 +1,88 @@
+package alexwyler;
+
+import alexwyler.StackSolver.Item;
+import io.vavr.Tuple3;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Solves small rooms and checks the plans with AdventureSimulator. */
+class StackSolverTest {
+
+    static final Item KEYPAD = item("keypad", null);
+
+    static Item item(String name, String adjective, Item... missing) {
+        return new Item(name, adjective, Set.of(missing));
+    }
+
+    /** The keypad room from the adventure, plus dupes junk items shuffled in under the top. */
+    static List<Item> keypadRoom(int dupes, Random random) {
+        List<Item> stack = new ArrayList<>(List.of(
+            item("bolt", null), item("spring", null), item("button", null),
+            item("processor", null, item("cache", null)), item("pill", "red"),
+            item("radio", null, item("transistor", null), item("antenna", null)), item("cache", null),
+            item("transistor", "blue"), item("antenna", null), item("screw", null),
+            item("motherboard", null, item("A-1920-IXB", null), item("screw", null)),
+            item("A-1920-IXB", null, item("radio", null, item("antenna", null)), item("processor", null),
+                item("bolt", null), item("transistor", null)),
+            item("transistor", "red"), item("keypad", null, item("button", null), item("motherboard", null)),
+            item("trash", null)));
+        String[] colors = {"green", "orange", "gray", "teal", "pink", "plum"};
+        String[] junk = {"transistor", "screw", "antenna"};
+        for (int i = 0; i < dupes; i++) {
+            stack.add(1 + random.nextInt(stack.size() - 1),
+                item(junk[random.nextInt(junk.length)], colors[random.nextInt(colors.length)]));
+        }
+        return stack;
+    }
+
+    static boolean validates(List<Item> stack, List<Item> inventory, Item target, List<String> plan) {
+        return new AdventureSimulator(new Tuple3<>(true, stack, "Junk Room"), inventory).validates(plan, target);
+    }
+
+    @Test
+    void solveAfterTimedOutSolve() {
+        List<Item> stack = keypadRoom(5, new Random(5));
+        List<String> fresh = new StackSolver(stack, List.of(), KEYPAD).solve();
+
+        StackSolver solver = new StackSolver(stack, List.of(), KEYPAD);
+        assertTrue(solver.solve(Duration.ZERO).timedOut());
+        assertEquals(fresh, solver.solve());
+    }
+
+    @Test
+    void solveAfterCancelledSolve() {
+        List<Item> stack = keypadRoom(5, new Random(5));
+        StackSolver solver = new StackSolver(stack, List.of(), KEYPAD);
+        solver.solveAsync(Duration.ofMinutes(1)).cancel(true);
+
+        assertTrue(validates(stack, List.of(), KEYPAD, solver.solve()));
+        StackSolver.Result result = solver.solve(Duration.ofMinutes(1));
+        assertFalse(result.timedOut(), "still cancelled after " + result.statesVisited() + " states");
+        assertTrue(validates(stack, List.of(), KEYPAD, result.plan()));
+    }
+
+    @Test
+    void regressionLeavesInventoryAlone() {
+        // a carried core need that takes the same part the target does
+        List<Item> inventory = List.of(item("clock", null, item("gear", null)));
+        Item widget = item("widget", null);
+        List<Item> stack = List.of(item("widget", null, item("gear", null)), item("gear", null));
+
+        List<Item> inv = new ArrayList<>(inventory);
+        List<String> plan = new ArrayList<>();
+        assertTrue(new GoalRegressionPlanner(stack, inventory, widget).plan(inv, plan), "no plan, got as far as " + plan);
+        assertEquals(List.of("take widget", "take gear", "combine widget with gear"), plan);
+        assertTrue(inv.containsAll(inventory));
+        assertTrue(validates(stack, inventory, widget, plan));
+    }
+
+}